@@ -0,0 +1,558 @@
+package WAVLTree;
+
+import java.util.Objects;
+
+/**
+ *
+ * AbstractWAVLMap
+ *
+ * The key-independent part of a WAVL Tree map: node linking, rotations
+ * and rank rebalancing after insert and delete, subtree sizes, select,
+ * min and max. Subclasses own the key type and its comparisons, and only
+ * find positions in the tree; IntWAVLMap and LongWAVLMap compare primitive
+ * keys directly, WAVLMap goes through a Comparator.
+ *
+ * An optional Augmenter keeps an aggregate of the values of every subtree;
+ * it is updated bottom-up after insert and delete, stopping once an ancestor's
+ * aggregate is unchanged, and locally at each rotation. Subclasses that keep
+ * fields of their own about every subtree get the same updates through
+ * updateNode.
+ *
+ */
+
+public abstract class AbstractWAVLMap<V, N extends AbstractWAVLMap.Node<V, N>> {
+
+	protected N root;
+
+	// null if the map is not augmented
+	private final Augmenter<V, Object> augmenter;
+
+	// true if the subclass overrides updateNode
+	private final boolean updatesNodes;
+
+	protected AbstractWAVLMap(Augmenter<? super V, ?> augmenter) {
+		this(augmenter, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected AbstractWAVLMap(Augmenter<? super V, ?> augmenter, boolean updatesNodes) {
+		this.augmenter = (Augmenter<V, Object>) augmenter;
+		this.updatesNodes = updatesNodes;
+	}
+
+	/**
+	 * A node of the map; a missing child is null and has rank -1.
+	 */
+	protected abstract static class Node<V, N extends Node<V, N>> {
+		protected V value;
+		protected N left;
+		protected N right;
+		protected N parent;
+		protected int rank;
+		protected int size;
+		protected Object aggregate; // of the subtree, null if the map is not augmented
+
+		protected Node(V v) {
+			value = v;
+			rank = 0;
+			size = 1;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		public int getSubtreeSize() {
+			return size;
+		}
+	}
+
+  /**
+   * public boolean empty()
+   *
+   * returns true if and only if the map is empty
+   *
+   */
+	public boolean empty() {
+		return (null == root);
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of items in the map.
+    */
+	public int size() {
+		return sizeOf(root);
+	}
+
+   /**
+    * public V select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0,
+    * or null if i is out of range.
+    */
+	public V select(int i) {
+		N x = selectNode(i);
+		return (null == x) ? null : x.value;
+	}
+
+   /**
+    * public V min()
+    *
+    * Returns the value of the item with the smallest key,
+    * or null if the map is empty
+    */
+	public V min() {
+		N x = firstNode();
+		return (null == x) ? null : x.value;
+	}
+
+   /**
+    * public V max()
+    *
+    * Returns the value of the item with the largest key,
+    * or null if the map is empty
+    */
+	public V max() {
+		N x = lastNode();
+		return (null == x) ? null : x.value;
+	}
+
+  /**
+   * public Object[] infoToArray()
+   *
+   * Returns an array which contains all values in the map,
+   * sorted by their respective keys.
+   */
+	public Object[] infoToArray() {
+		Object[] arr = new Object[size()];
+		int i = 0;
+		for (N x = firstNode(); null != x; x = successor(x)) {
+			arr[i++] = x.value;
+		}
+		return arr;
+	}
+
+	/*
+	 * the aggregate of the values at positions [from, to) in key order, 0 <= from < to <= size()
+	 */
+	protected Object aggregateRange(int from, int to) {
+		if (null == augmenter) {
+			throw new IllegalStateException("the map is not augmented");
+		}
+		return aggregateRange(root, from, to);
+	}
+
+	private Object aggregateRange(N x, int from, int to) {
+		if (0 == from && x.size == to) {
+			return x.aggregate;
+		}
+
+		int l = sizeOf(x.left);
+		Object a = null;
+		if (from < l) {
+			a = aggregateRange(x.left, from, Math.min(to, l));
+		}
+		if (from <= l && l < to) {
+			a = combine(a, augmenter.of(x.value));
+		}
+		if (l + 1 < to) {
+			a = combine(a, aggregateRange(x.right, Math.max(0, from - l - 1), to - l - 1));
+		}
+		return a;
+	}
+
+	private Object combine(Object a, Object b) {
+		return (null == a) ? b : augmenter.combine(a, b);
+	}
+
+	/*
+	 * recalculates the fields a subclass keeps about the subtree of x from
+	 * its children, returns true if and only if one of them changed
+	 */
+	protected boolean updateNode(N x) {
+		return false;
+	}
+
+	/*
+	 * recalculates the aggregate of x and the subclass fields from its children,
+	 * returns true if and only if one of them changed
+	 */
+	private boolean updateAggregate(N x) {
+		boolean nodeChanged = updatesNodes && updateNode(x);
+		if (null == augmenter) {
+			return nodeChanged;
+		}
+
+		Object a = augmenter.of(x.value);
+		if (null != x.left) {
+			a = augmenter.combine(x.left.aggregate, a);
+		}
+		if (null != x.right) {
+			a = augmenter.combine(a, x.right.aggregate);
+		}
+
+		boolean changed = !Objects.equals(a, x.aggregate);
+		x.aggregate = a;
+		return changed || nodeChanged;
+	}
+
+	/*
+	 * updates aggregates from x towards the root, stopping at the first unchanged one
+	 * that is above through (through may be null)
+	 */
+	private void updateAggregatesFromNode(N x, N through) {
+		if (null == augmenter && !updatesNodes) {
+			return;
+		}
+
+		boolean forced = (null != through);
+		for (N q = x; null != q; q = q.parent) {
+			boolean changed = updateAggregate(q);
+			if (q == through) {
+				// through took another node's place, so its old aggregate is no baseline
+				forced = false;
+				changed = true;
+			}
+			if (!changed && !forced) {
+				break;
+			}
+		}
+	}
+
+	/*
+	 * updates the aggregates and subclass fields from x towards the root,
+	 * after a subclass changed what they are calculated from at x
+	 */
+	protected void updateFromNode(N x) {
+		updateAggregatesFromNode(x, null);
+	}
+
+	protected N selectNode(int i) {
+		if (0 > i || i >= size()) {
+			return null;
+		}
+
+		N x = root;
+		while (true) {
+			int r = sizeOf(x.left);
+			if (i == r) {
+				return x;
+			} else if (i < r) {
+				x = x.left;
+			} else {
+				i -= r + 1;
+				x = x.right;
+			}
+		}
+	}
+
+	protected N firstNode() {
+		N x = root;
+		if (null != x) {
+			while (null != x.left) {
+				x = x.left;
+			}
+		}
+		return x;
+	}
+
+	protected N lastNode() {
+		N x = root;
+		if (null != x) {
+			while (null != x.right) {
+				x = x.right;
+			}
+		}
+		return x;
+	}
+
+	protected N successor(N x) {
+		if (null != x.right) {
+			x = x.right;
+			while (null != x.left) {
+				x = x.left;
+			}
+			return x;
+		}
+
+		N y = x.parent;
+		while (null != y && y.right == x) {
+			x = y;
+			y = x.parent;
+		}
+		return y;
+	}
+
+	/*
+	 * links the new leaf z as a child of y (or as the root when y is null)
+	 * and rebalances, returns the number of rebalancing operations
+	 */
+	protected int insertNode(N y, N z, boolean asLeft) {
+		updateAggregate(z);
+
+		if (null == y) {
+			root = z;
+			return 0;
+		}
+
+		z.parent = y;
+		if (asLeft) {
+			y.left = z;
+		} else {
+			y.right = z;
+		}
+
+		for (N p = y; null != p; p = p.parent) {
+			p.size++;
+		}
+		updateAggregatesFromNode(y, null);
+
+		return rebalanceInsert(z);
+	}
+
+	/*
+	 * unlinks z from the tree and rebalances,
+	 * returns the number of rebalancing operations
+	 */
+	protected int deleteNode(N z) {
+		N c;
+		N p;
+		N moved = null; // the successor that took z's place
+
+		if (null != z.left && null != z.right) {
+			// the successor is spliced out and takes z's place
+			N s = z.right;
+			while (null != s.left) {
+				s = s.left;
+			}
+
+			c = s.right;
+			p = s.parent;
+			replaceChild(p, s, c);
+			if (p == z) {
+				p = s;
+			}
+
+			s.left = z.left;
+			s.right = z.right;
+			s.left.parent = s;
+			if (null != s.right) {
+				s.right.parent = s;
+			}
+			s.rank = z.rank;
+			s.size = z.size;
+			replaceChild(z.parent, z, s);
+			moved = s;
+		} else {
+			c = (null != z.left) ? z.left : z.right;
+			p = z.parent;
+			replaceChild(p, z, c);
+		}
+
+		z.left = null;
+		z.right = null;
+		z.parent = null;
+		z.aggregate = null;
+
+		for (N q = p; null != q; q = q.parent) {
+			q.size--;
+		}
+		updateAggregatesFromNode(p, moved);
+
+		return rebalanceDelete(c, p);
+	}
+
+	/*
+	 * x is a node whose rank may equal its parent's rank (a 0-child),
+	 * promote up the tree and finish with at most two rotations
+	 */
+	protected int rebalanceInsert(N x) {
+		int steps = 0;
+		N p = x.parent;
+
+		while (null != p && p.rank == x.rank) {
+			boolean xIsLeft = (p.left == x);
+			N s = xIsLeft ? p.right : p.left;
+
+			// sibling is a 1-child - promote and move up
+			if (1 == p.rank - rankOf(s)) {
+				p.rank++;
+				steps++;
+				x = p;
+				p = x.parent;
+				continue;
+			}
+
+			// sibling is a 2-child - rotate
+			N inner = xIsLeft ? x.right : x.left;
+			if (null == inner || 2 == x.rank - inner.rank) {
+				if (xIsLeft) {
+					rotateRight(p);
+				} else {
+					rotateLeft(p);
+				}
+				p.rank--;
+				steps += 1;
+			} else {
+				if (xIsLeft) {
+					rotateLeft(x);
+					rotateRight(p);
+				} else {
+					rotateRight(x);
+					rotateLeft(p);
+				}
+				inner.rank++;
+				x.rank--;
+				p.rank--;
+				steps += 2;
+			}
+			break;
+		}
+
+		return steps;
+	}
+
+	/*
+	 * x (possibly null) is the child of p that replaced the deleted node,
+	 * demote up the tree and finish with at most two rotations
+	 */
+	protected int rebalanceDelete(N x, N p) {
+		int steps = 0;
+
+		if (null == p) {
+			return 0;
+		}
+
+		// p became a 2,2 leaf
+		if (null == p.left && null == p.right && 1 == p.rank) {
+			p.rank--;
+			steps++;
+			x = p;
+			p = x.parent;
+		}
+
+		while (null != p && 3 == p.rank - rankOf(x)) {
+			boolean xIsLeft = (p.left == x);
+			N s = xIsLeft ? p.right : p.left;
+
+			// sibling is a 2-child - demote and move up
+			if (2 == p.rank - rankOf(s)) {
+				p.rank--;
+				steps++;
+				x = p;
+				p = x.parent;
+				continue;
+			}
+
+			N outer = xIsLeft ? s.right : s.left;
+			N inner = xIsLeft ? s.left : s.right;
+
+			// sibling is a 2,2 node - double demote and move up
+			if (2 == s.rank - rankOf(outer) && 2 == s.rank - rankOf(inner)) {
+				s.rank--;
+				p.rank--;
+				steps += 2;
+				x = p;
+				p = x.parent;
+				continue;
+			}
+
+			if (1 == s.rank - rankOf(outer)) {
+				// single rotation
+				if (xIsLeft) {
+					rotateLeft(p);
+				} else {
+					rotateRight(p);
+				}
+				s.rank++;
+				p.rank--;
+				if (null == p.left && null == p.right) {
+					p.rank--;
+				}
+				steps += 1;
+			} else {
+				// double rotation
+				if (xIsLeft) {
+					rotateRight(s);
+					rotateLeft(p);
+				} else {
+					rotateLeft(s);
+					rotateRight(p);
+				}
+				inner.rank += 2;
+				s.rank--;
+				p.rank -= 2;
+				steps += 2;
+			}
+			break;
+		}
+
+		return steps;
+	}
+
+	/*
+	 * the left child of x becomes the root of x's subtree
+	 */
+	protected void rotateRight(N x) {
+		N y = x.left;
+		N b = y.right;
+
+		x.left = b;
+		if (null != b) {
+			b.parent = x;
+		}
+		replaceChild(x.parent, x, y);
+		y.right = x;
+		x.parent = y;
+
+		y.size = x.size;
+		x.size = sizeOf(x.left) + sizeOf(x.right) + 1;
+		updateAggregate(x);
+		updateAggregate(y);
+	}
+
+	/*
+	 * the right child of x becomes the root of x's subtree
+	 */
+	protected void rotateLeft(N x) {
+		N y = x.right;
+		N b = y.left;
+
+		x.right = b;
+		if (null != b) {
+			b.parent = x;
+		}
+		replaceChild(x.parent, x, y);
+		y.left = x;
+		x.parent = y;
+
+		y.size = x.size;
+		x.size = sizeOf(x.left) + sizeOf(x.right) + 1;
+		updateAggregate(x);
+		updateAggregate(y);
+	}
+
+	private void replaceChild(N p, N oldChild, N newChild) {
+		if (null != newChild) {
+			newChild.parent = p;
+		}
+		if (null == p) {
+			root = newChild;
+		} else if (p.left == oldChild) {
+			p.left = newChild;
+		} else {
+			p.right = newChild;
+		}
+	}
+
+	protected static int rankOf(Node<?, ?> x) {
+		return (null == x) ? -1 : x.rank;
+	}
+
+	protected static int sizeOf(Node<?, ?> x) {
+		return (null == x) ? 0 : x.size;
+	}
+
+}
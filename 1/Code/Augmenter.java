@@ -0,0 +1,20 @@
+package WAVLTree;
+
+/**
+ *
+ * Augmenter
+ *
+ * Describes a value aggregated over every subtree of a WAVL map,
+ * for example a sum, a minimum or a maximum of the values.
+ * combine must be associative; aggregates must implement equals,
+ * so that an update stops climbing once an ancestor's aggregate is unchanged.
+ *
+ */
+
+public interface Augmenter<V, A> {
+	// the aggregate of a single value
+	A of(V value);
+
+	// the aggregate of the values of left followed by the values of right
+	A combine(A left, A right);
+}
@@ -0,0 +1,196 @@
+package WAVLTree;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * BatchingWAVLTree
+ *
+ * A single-writer front end for a WAVL Tree. Callers on any thread enqueue
+ * inserts and deletes to a bounded queue and get a CompletableFuture of the
+ * usual return value; one writer thread owns the tree, drains the queue in
+ * batches, sorts each batch by key and applies it in a single pass that
+ * searches for every key from the node of the previous one.
+ *
+ * Operations on the same key complete in the order they were enqueued.
+ * The tree is only handed out by shutdown(), after the writer has stopped.
+ *
+ */
+
+public class BatchingWAVLTree {
+	private static final int DEFAULT_QUEUE_CAPACITY = 1 << 14;
+	private static final int DEFAULT_MAX_BATCH = 1 << 10;
+	// how long a blocked submit waits before checking that the writer still runs
+	private static final long OFFER_RETRY_MILLIS = 10;
+
+	// tells the writer to stop, enqueued by shutdown
+	private static final Op STOP = new Op(0, null, true);
+
+	private final WAVLTree tree;
+	private final BlockingQueue<Op> queue;
+	private final int maxBatch;
+	private final Thread writer;
+
+	private volatile boolean closed;
+	private volatile boolean terminated; // the writer no longer drains the queue
+
+	private static final class Op {
+		private final int key;
+		private final String info;
+		private final boolean delete;
+		private final CompletableFuture<Integer> result;
+
+		private Op(int key, String info, boolean delete) {
+			this.key = key;
+			this.info = info;
+			this.delete = delete;
+			this.result = new CompletableFuture<>();
+		}
+	}
+
+	public BatchingWAVLTree() {
+		this(new WAVLTree(), DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH);
+	}
+
+	// the writer takes tree over, nothing else may use it until shutdown
+	public BatchingWAVLTree(WAVLTree tree, int queueCapacity, int maxBatch) {
+		if (queueCapacity < 1 || maxBatch < 1) {
+			throw new IllegalArgumentException("queueCapacity and maxBatch must be positive");
+		}
+		this.tree = tree;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.maxBatch = maxBatch;
+		this.writer = new Thread(this::drain, "wavl-batch-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+  /**
+   * public CompletableFuture<Integer> insert(int k, String i)
+   *
+   * enqueues an insert of key k with info i, blocking while the queue is full.
+   * the future completes with what WAVLTree.insert returns.
+   */
+	public CompletableFuture<Integer> insert(int k, String i) {
+		return submit(new Op(k, i, false));
+	}
+
+  /**
+   * public CompletableFuture<Integer> delete(int k)
+   *
+   * enqueues a delete of key k, blocking while the queue is full.
+   * the future completes with what WAVLTree.delete returns.
+   */
+	public CompletableFuture<Integer> delete(int k) {
+		return submit(new Op(k, null, true));
+	}
+
+  /**
+   * public WAVLTree shutdown()
+   *
+   * stops accepting operations, waits for the queued ones to be applied
+   * and returns the tree. Operations that race shutdown fail with an
+   * IllegalStateException.
+   */
+	public WAVLTree shutdown() throws InterruptedException {
+		if (!closed) {
+			closed = true;
+			queue.put(STOP);
+		}
+		writer.join();
+		return tree;
+	}
+
+	private CompletableFuture<Integer> submit(Op op) {
+		if (closed) {
+			throw new IllegalStateException("the tree is shut down");
+		}
+
+		try {
+			// shutdown may close the tree after the check above, and a full
+			// queue is never drained again once the writer has terminated
+			while (!queue.offer(op, OFFER_RETRY_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (terminated) {
+					rejectOp(op);
+					return op.result;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			op.result.completeExceptionally(e);
+			return op.result;
+		}
+
+		// the writer's last drain may have run before the put
+		if (terminated && queue.remove(op)) {
+			rejectOp(op);
+		}
+		return op.result;
+	}
+
+	/*
+	 * the writer loop
+	 */
+	private void drain() {
+		List<Op> batch = new ArrayList<>(maxBatch);
+		boolean stopping = false;
+
+		while (!stopping) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				continue; // only shutdown stops the writer
+			}
+			queue.drainTo(batch, maxBatch - 1);
+
+			int stop = batch.indexOf(STOP);
+			if (0 <= stop) {
+				stopping = true;
+				for (Op op : batch.subList(stop + 1, batch.size())) {
+					rejectOp(op);
+				}
+				batch.subList(stop, batch.size()).clear();
+			}
+
+			applyBatch(batch);
+			batch.clear();
+		}
+
+		terminated = true;
+		for (Op op = queue.poll(); null != op; op = queue.poll()) {
+			rejectOp(op);
+		}
+	}
+
+	private void applyBatch(List<Op> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		// a stable sort keeps operations on the same key in order
+		batch.sort(Comparator.comparingInt(op -> op.key));
+
+		// the finger operations search for each key from the node of the previous one,
+		// and every future completes with the outcome of its own operation
+		for (Op op : batch) {
+			try {
+				op.result.complete(op.delete ? tree.fingerDelete(op.key) : tree.fingerInsert(op.key, op.info));
+			} catch (RuntimeException e) {
+				op.result.completeExceptionally(e);
+			}
+		}
+	}
+
+	private static void rejectOp(Op op) {
+		if (STOP != op) {
+			op.result.completeExceptionally(new IllegalStateException("the tree is shut down"));
+		}
+	}
+
+}
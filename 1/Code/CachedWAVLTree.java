@@ -0,0 +1,188 @@
+package WAVLTree;
+
+/**
+ *
+ * CachedWAVLTree
+ *
+ * A WAVL Tree with a bounded cache of hot keys in front of search.
+ * The cache is set-associative: a key hashes to one set of WAYS slots in
+ * flat primitive arrays, so a hit costs one hash and a few compares instead
+ * of a descent. Each set evicts by CLOCK: a hit sets the slot's reference bit,
+ * and a miss that finds the set full sweeps the set's hand, clearing bits,
+ * until it reaches a slot that was not referenced since the last sweep.
+ *
+ * Only keys that are in the tree are cached, and a tree item never changes
+ * its info, so delete is the only change that invalidates an entry.
+ *
+ */
+
+public class CachedWAVLTree {
+	private static final int WAYS = 4;
+
+	private static final byte EMPTY = 0;
+	private static final byte CACHED = 1;
+	private static final byte REFERENCED = 2;
+
+	private final WAVLTree tree;
+
+	private final int setMask;
+	private final int[] keys;
+	private final String[] values;
+	private final byte[] state;
+	private final byte[] hands; // CLOCK hand of every set
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	// capacity >= 1, rounded up to a power of two of at least WAYS slots
+	public CachedWAVLTree(int capacity) {
+		this(new WAVLTree(), capacity);
+	}
+
+	// tree must only be modified through this cache from now on
+	public CachedWAVLTree(WAVLTree tree, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		int sets = 1;
+		while (sets * WAYS < capacity) {
+			sets <<= 1;
+		}
+		this.tree = tree;
+		this.setMask = sets - 1;
+		this.keys = new int[sets * WAYS];
+		this.values = new String[sets * WAYS];
+		this.state = new byte[sets * WAYS];
+		this.hands = new byte[sets];
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists in the tree
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		int set = setOf(k);
+		int base = set * WAYS;
+		for (int j = base; j < base + WAYS; j++) {
+			if (EMPTY != state[j] && keys[j] == k) {
+				state[j] = REFERENCED;
+				hits++;
+				return values[j];
+			}
+		}
+
+		misses++;
+		WAVLTree.IWAVLNode x = tree.treePosition(tree.getRoot(), k);
+		if (null == x || x.getKey() != k) {
+			return null;
+		}
+		admit(set, k, x.getValue());
+		return x.getValue();
+	}
+
+	private void admit(int set, int k, String v) {
+		int base = set * WAYS;
+		int slot = -1;
+		for (int j = base; j < base + WAYS; j++) {
+			if (EMPTY == state[j]) {
+				slot = j;
+				break;
+			}
+		}
+
+		if (-1 == slot) {
+			int hand = hands[set];
+			while (REFERENCED == state[base + hand]) {
+				state[base + hand] = CACHED;
+				hand = (hand + 1) % WAYS;
+			}
+			slot = base + hand;
+			hands[set] = (byte) ((hand + 1) % WAYS);
+			evictions++;
+		}
+
+		keys[slot] = k;
+		values[slot] = v;
+		state[slot] = CACHED;
+	}
+
+  /**
+   * public int insert(int k, String i)
+   *
+   * inserts an item with key k and info i, as WAVLTree.insert does.
+   */
+	public int insert(int k, String i) {
+		return tree.insert(k, i);
+	}
+
+  /**
+   * public int delete(int k)
+   *
+   * deletes the item with key k, as WAVLTree.delete does, and drops it from the cache.
+   */
+	public int delete(int k) {
+		int base = setOf(k) * WAYS;
+		for (int j = base; j < base + WAYS; j++) {
+			if (EMPTY != state[j] && keys[j] == k) {
+				state[j] = EMPTY;
+				values[j] = null;
+			}
+		}
+		return tree.delete(k);
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of nodes in the tree.
+    */
+	public int size() {
+		return tree.size();
+	}
+
+   /**
+    * public long hits()
+    *
+    * Returns the number of searches answered by the cache.
+    */
+	public long hits() {
+		return hits;
+	}
+
+   /**
+    * public long misses()
+    *
+    * Returns the number of searches that went to the tree.
+    */
+	public long misses() {
+		return misses;
+	}
+
+   /**
+    * public long evictions()
+    *
+    * Returns the number of cached keys evicted to make room for others.
+    */
+	public long evictions() {
+		return evictions;
+	}
+
+   /**
+    * public double hitRate()
+    *
+    * Returns hits / (hits + misses), or 0 before the first search.
+    */
+	public double hitRate() {
+		long total = hits + misses;
+		return (0 == total) ? 0 : (double) hits / total;
+	}
+
+	private int setOf(int k) {
+		int h = k * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & setMask;
+	}
+
+}
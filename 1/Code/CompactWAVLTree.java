@@ -0,0 +1,518 @@
+package WAVLTree;
+
+import java.util.Arrays;
+
+/**
+ *
+ * CompactWAVLTree
+ *
+ * A WAVL Tree with distinct integer keys and info, storing its nodes
+ * in parallel primitive arrays instead of one object per node.
+ * A node is an index into the arrays, children and parents are indices
+ * as well (NIL for a missing node), and the slots of deleted nodes are
+ * recycled through a free list.
+ *
+ * With a maxTombstoneRatio, delete is lazy: it marks the node as a tombstone
+ * in O(log n) without unlinking or rebalancing, and once tombstones make up
+ * more than that share of the nodes the tree is rebuilt from the live items
+ * in O(n). The rebuild runs inline, on the calling thread, in the delete that
+ * crosses the ratio: deletes cost O(log n) amortized, but that one delete
+ * pays O(n). Subtree sizes count live nodes only, so size and select never
+ * see tombstones, and inserting a deleted key revives its node.
+ *
+ * insert, delete, search and select have the same semantics and return
+ * values as in WAVLTree, except that a lazy delete returns 0.
+ *
+ */
+
+public class CompactWAVLTree {
+	private static final int NIL = -1;
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] keys;
+	private String[] values;
+	private int[] left;
+	private int[] right;
+	private int[] parent; // also links the free list
+	private byte[] rank;
+	private int[] size;   // live nodes in the subtree
+	private boolean[] dead; // tombstones, null unless deletion is lazy
+
+	private final double maxTombstoneRatio; // lazy deletion if > 0
+	private int tombstones;
+
+	private int root;
+	private int freeHead; // first recycled slot, NIL if none
+	private int used;     // slots ever handed out (high water mark)
+
+	private final IndexedWAVLRebalancer balancer = new IndexedWAVLRebalancer(new IndexedWAVLRebalancer.Nodes() {
+		@Override
+		public int left(int x) {
+			return left[x];
+		}
+
+		@Override
+		public int right(int x) {
+			return right[x];
+		}
+
+		@Override
+		public int parent(int x) {
+			return parent[x];
+		}
+
+		@Override
+		public int rank(int x) {
+			return rank[x];
+		}
+
+		@Override
+		public void setLeft(int x, int c) {
+			left[x] = c;
+		}
+
+		@Override
+		public void setRight(int x, int c) {
+			right[x] = c;
+		}
+
+		@Override
+		public void setParent(int x, int p) {
+			parent[x] = p;
+		}
+
+		@Override
+		public void setRank(int x, int r) {
+			rank[x] = (byte) r;
+		}
+
+		@Override
+		public void setRoot(int x) {
+			root = x;
+		}
+
+		// sizes count live nodes, a tombstone adds nothing for itself
+		@Override
+		public void updateSize(int x) {
+			size[x] = sizeOf(left[x]) + sizeOf(right[x]) + (isDead(x) ? 0 : 1);
+		}
+	}, NIL);
+
+	public CompactWAVLTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	// initialCapacity > 0
+	public CompactWAVLTree(int initialCapacity) {
+		this(initialCapacity, 0);
+	}
+
+	// initialCapacity > 0, 0 < maxTombstoneRatio < 1 for lazy deletion, 0 for eager deletion
+	public CompactWAVLTree(int initialCapacity, double maxTombstoneRatio) {
+		if (!(0 <= maxTombstoneRatio && maxTombstoneRatio < 1)) {
+			throw new IllegalArgumentException("maxTombstoneRatio must be in [0, 1)");
+		}
+		this.maxTombstoneRatio = maxTombstoneRatio;
+		if (initialCapacity < 1) {
+			initialCapacity = 1;
+		}
+		keys = new int[initialCapacity];
+		values = new String[initialCapacity];
+		left = new int[initialCapacity];
+		right = new int[initialCapacity];
+		parent = new int[initialCapacity];
+		rank = new byte[initialCapacity];
+		size = new int[initialCapacity];
+		dead = (0 < maxTombstoneRatio) ? new boolean[initialCapacity] : null;
+
+		root = NIL;
+		freeHead = NIL;
+		used = 0;
+	}
+
+  /**
+   * public boolean empty()
+   *
+   * returns true if and only if the tree is empty
+   *
+   */
+	public boolean empty() {
+		return (0 == sizeOf(root));
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists in the tree
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		int x = findNode(k);
+		return (NIL == x || isDead(x)) ? null : values[x];
+	}
+
+  /**
+   * public int insert(int k, String i)
+   *
+   * inserts an item with key k and info i to the WAVL tree.
+   * the tree must remain valid (keep its invariants).
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+   * returns -1 if an item with key k already exists in the tree.
+   */
+	public int insert(int k, String i) {
+		if (NIL == root) {
+			root = allocate(k, i);
+			return 0;
+		}
+
+		// find the parent of the new node
+		int y = root;
+		while (true) {
+			if (keys[y] == k) {
+				return isDead(y) ? revive(y, i) : -1;
+			}
+			int next = (k < keys[y]) ? left[y] : right[y];
+			if (NIL == next) {
+				break;
+			}
+			y = next;
+		}
+
+		int z = allocate(k, i);
+		parent[z] = y;
+		if (k < keys[y]) {
+			left[y] = z;
+		} else {
+			right[y] = z;
+		}
+
+		for (int p = y; NIL != p; p = parent[p]) {
+			size[p]++;
+		}
+
+		return balancer.rebalanceInsert(z);
+	}
+
+	/*
+	 * x is a tombstone, it takes the item back without any rebalancing
+	 */
+	private int revive(int x, String i) {
+		values[x] = i;
+		dead[x] = false;
+		tombstones--;
+		for (int p = x; NIL != p; p = parent[p]) {
+			size[p]++;
+		}
+		return 0;
+	}
+
+  /**
+   * public int delete(int k)
+   *
+   * deletes an item with key k from the binary tree, if it is there;
+   * the tree must remain valid (keep its invariants).
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+   * returns -1 if an item with key k was not found in the tree.
+   * a lazy delete that pushes the tombstones over the ratio also rebuilds the tree, in O(n).
+   */
+	public int delete(int k) {
+		int z = findNode(k);
+		if (NIL == z || isDead(z)) {
+			return -1;
+		}
+		if (0 < maxTombstoneRatio) {
+			return deleteLazily(z);
+		}
+
+		// a binary node takes over its successor's item, the successor is removed instead
+		if (NIL != left[z] && NIL != right[z]) {
+			int s = right[z];
+			while (NIL != left[s]) {
+				s = left[s];
+			}
+			keys[z] = keys[s];
+			values[z] = values[s];
+			z = s;
+		}
+
+		// z has at most one child
+		int c = (NIL != left[z]) ? left[z] : right[z];
+		int p = parent[z];
+
+		if (NIL != c) {
+			parent[c] = p;
+		}
+		if (NIL == p) {
+			root = c;
+		} else if (left[p] == z) {
+			left[p] = c;
+		} else {
+			right[p] = c;
+		}
+
+		for (int q = p; NIL != q; q = parent[q]) {
+			size[q]--;
+		}
+
+		release(z);
+
+		return balancer.rebalanceDelete(c, p);
+	}
+
+	private int deleteLazily(int z) {
+		values[z] = null; // let the info be collected
+		dead[z] = true;
+		tombstones++;
+		for (int q = z; NIL != q; q = parent[q]) {
+			size[q]--;
+		}
+
+		if (tombstones > maxTombstoneRatio * (sizeOf(root) + tombstones)) {
+			rebuild();
+		}
+		return 0;
+	}
+
+	/*
+	 * replaces the tree by a perfectly balanced tree of its live items, in O(n):
+	 * the i'th smallest live item moves to slot i and the free list empties
+	 */
+	private void rebuild() {
+		int n = sizeOf(root);
+		int[] liveKeys = new int[n];
+		String[] liveValues = new String[n];
+		int j = 0;
+		for (int x = first(); NIL != x; x = successor(x)) {
+			if (!isDead(x)) {
+				liveKeys[j] = keys[x];
+				liveValues[j] = values[x];
+				j++;
+			}
+		}
+
+		System.arraycopy(liveKeys, 0, keys, 0, n);
+		System.arraycopy(liveValues, 0, values, 0, n);
+		Arrays.fill(values, n, used, null);
+		Arrays.fill(dead, 0, used, false);
+		tombstones = 0;
+		freeHead = NIL;
+		used = n;
+		root = build(0, n - 1, NIL);
+	}
+
+	/*
+	 * links the slots lo..hi into a perfectly balanced subtree, returns its root
+	 */
+	private int build(int lo, int hi, int p) {
+		if (lo > hi) {
+			return NIL;
+		}
+		int mid = (lo + hi) >>> 1;
+		parent[mid] = p;
+		left[mid] = build(lo, mid - 1, mid);
+		right[mid] = build(mid + 1, hi, mid);
+		size[mid] = hi - lo + 1;
+		// a perfectly balanced subtree of n nodes has height floor(log n)
+		rank[mid] = (byte) (31 - Integer.numberOfLeadingZeros(hi - lo + 1));
+		return mid;
+	}
+
+	private boolean isDead(int x) {
+		return null != dead && dead[x];
+	}
+
+	private int sizeOf(int x) {
+		return (NIL == x) ? 0 : size[x];
+	}
+
+	private int findNode(int k) {
+		int x = root;
+		while (NIL != x && keys[x] != k) {
+			x = (k < keys[x]) ? left[x] : right[x];
+		}
+		return x;
+	}
+
+	private int allocate(int k, String i) {
+		int x;
+		if (NIL != freeHead) {
+			x = freeHead;
+			freeHead = parent[x];
+		} else {
+			if (used == keys.length) {
+				grow();
+			}
+			x = used++;
+		}
+
+		keys[x] = k;
+		values[x] = i;
+		left[x] = NIL;
+		right[x] = NIL;
+		parent[x] = NIL;
+		rank[x] = 0;
+		size[x] = 1;
+		return x;
+	}
+
+	private void release(int x) {
+		values[x] = null; // let the info be collected
+		parent[x] = freeHead;
+		freeHead = x;
+	}
+
+	private void grow() {
+		int capacity = keys.length + (keys.length >> 1) + 1;
+		keys = Arrays.copyOf(keys, capacity);
+		values = Arrays.copyOf(values, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		rank = Arrays.copyOf(rank, capacity);
+		size = Arrays.copyOf(size, capacity);
+		if (null != dead) {
+			dead = Arrays.copyOf(dead, capacity);
+		}
+	}
+
+   /**
+    * public String min()
+    *
+    * Returns the info of the item with the smallest key in the tree,
+    * or null if the tree is empty
+    */
+	public String min() {
+		return empty() ? null : values[selectNode(0)];
+	}
+
+   /**
+    * public String max()
+    *
+    * Returns the info of the item with the largest key in the tree,
+    * or null if the tree is empty
+    */
+	public String max() {
+		return empty() ? null : values[selectNode(size() - 1)];
+	}
+
+  /**
+   * public int[] keysToArray()
+   *
+   * Returns a sorted array which contains all keys in the tree,
+   * or an empty array if the tree is empty.
+   */
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		int i = 0;
+		for (int x = first(); NIL != x; x = successor(x)) {
+			if (!isDead(x)) {
+				arr[i++] = keys[x];
+			}
+		}
+		return arr;
+	}
+
+  /**
+   * public String[] infoToArray()
+   *
+   * Returns an array which contains all info in the tree,
+   * sorted by their respective keys,
+   * or an empty array if the tree is empty.
+   */
+	public String[] infoToArray() {
+		String[] arr = new String[size()];
+		int i = 0;
+		for (int x = first(); NIL != x; x = successor(x)) {
+			if (!isDead(x)) {
+				arr[i++] = values[x];
+			}
+		}
+		return arr;
+	}
+
+	private int first() {
+		int x = root;
+		if (NIL != x) {
+			while (NIL != left[x]) {
+				x = left[x];
+			}
+		}
+		return x;
+	}
+
+	private int successor(int x) {
+		if (NIL != right[x]) {
+			x = right[x];
+			while (NIL != left[x]) {
+				x = left[x];
+			}
+			return x;
+		}
+
+		int y = parent[x];
+		while (NIL != y && right[y] == x) {
+			x = y;
+			y = parent[x];
+		}
+		return y;
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of nodes in the tree.
+    */
+	public int size() {
+		return sizeOf(root);
+	}
+
+   /**
+    * public int capacity()
+    *
+    * Returns the number of node slots currently allocated,
+    * including the recycled ones.
+    */
+	public int capacity() {
+		return keys.length;
+	}
+
+   /**
+    * public int tombstones()
+    *
+    * Returns the number of lazily deleted nodes still in the tree.
+    */
+	public int tombstones() {
+		return tombstones;
+	}
+
+   /**
+    * public String select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0
+    * (returns "-1" if i is out of range), as WAVLTree.select does.
+    */
+	public String select(int i) {
+		if (0 > i || i >= size()) {
+			return "-1";
+		}
+		return values[selectNode(i)];
+	}
+
+	// precondition: 0 <= i < size()
+	private int selectNode(int i) {
+		int x = root;
+		while (true) {
+			int r = sizeOf(left[x]);
+			int self = isDead(x) ? 0 : 1;
+			if (i < r) {
+				x = left[x];
+			} else if (i < r + self) {
+				return x;
+			} else {
+				i -= r + self;
+				x = right[x];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,294 @@
+package WAVLTree;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *
+ * ConcurrentWAVLTree
+ *
+ * A thread-safe WAVL Tree with distinct integer keys and info.
+ * Writers are serialized by a StampedLock, readers first walk the tree
+ * optimistically without locking and validate the stamp afterwards;
+ * only a reader that raced a writer retries under the read lock.
+ *
+ * An optimistic walk may observe a half-rotated tree, so it is bounded
+ * by the maximal height of a WAVL tree and any exception it throws is
+ * treated as a failed validation.
+ *
+ */
+
+public class ConcurrentWAVLTree {
+	// a WAVL tree of n < 2^31 nodes has rank, and so height, below 2 * 31
+	private static final int MAX_DEPTH = 64;
+
+	// returned by an optimistic walk that went deeper than MAX_DEPTH
+	private static final String FAILED = new String("failed");
+
+	private final WAVLTree tree;
+	private final StampedLock lock;
+
+	public ConcurrentWAVLTree() {
+		tree = new WAVLTree();
+		lock = new StampedLock();
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists in the tree
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		long stamp = lock.tryOptimisticRead();
+		if (0 != stamp) {
+			try {
+				String v = optimisticSearch(k);
+				if (FAILED != v && lock.validate(stamp)) {
+					return v;
+				}
+			} catch (RuntimeException e) {
+				// a torn read, retry under the lock
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			return tree.search(k);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private String optimisticSearch(int k) {
+		WAVLTree.IWAVLNode x = tree.getRoot();
+		for (int depth = 0; null != x && x.isRealNode(); depth++) {
+			if (depth > MAX_DEPTH) {
+				return FAILED;
+			}
+			if (x.getKey() == k) {
+				return x.getValue();
+			}
+			x = (k < x.getKey()) ? x.getLeft() : x.getRight();
+		}
+		return null;
+	}
+
+   /**
+    * public String select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0
+    * (returns "-1" if i is out of range), as WAVLTree.select does.
+    */
+	public String select(int i) {
+		long stamp = lock.tryOptimisticRead();
+		if (0 != stamp) {
+			try {
+				String v = optimisticSelect(i);
+				if (FAILED != v && lock.validate(stamp)) {
+					return v;
+				}
+			} catch (RuntimeException e) {
+				// a torn read, retry under the lock
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			return tree.select(i);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private String optimisticSelect(int i) {
+		WAVLTree.IWAVLNode x = tree.getRoot();
+		if (null == x || 0 > i || i >= x.getSubtreeSize()) {
+			return "-1";
+		}
+
+		for (int depth = 0; x.isRealNode(); depth++) {
+			if (depth > MAX_DEPTH) {
+				return FAILED;
+			}
+			int r = x.getLeft().getSubtreeSize();
+			if (i == r) {
+				return x.getValue();
+			} else if (i < r) {
+				x = x.getLeft();
+			} else {
+				i -= r + 1;
+				x = x.getRight();
+			}
+		}
+		return FAILED;
+	}
+
+  /**
+   * public int countInRange(int lo, int hi)
+   *
+   * Returns the number of keys k in the tree with lo <= k <= hi.
+   */
+	public int countInRange(int lo, int hi) {
+		if (lo > hi) {
+			return 0;
+		}
+
+		long stamp = lock.tryOptimisticRead();
+		if (0 != stamp) {
+			try {
+				int above = optimisticCountBelow(hi, true);
+				int below = optimisticCountBelow(lo, false);
+				if (0 <= above && 0 <= below && lock.validate(stamp)) {
+					return above - below;
+				}
+			} catch (RuntimeException e) {
+				// a torn read, retry under the lock
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			return tree.countInRange(lo, hi);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+   /*
+    * as WAVLTree.rank, returns -1 if the walk went deeper than MAX_DEPTH
+    */
+	private int optimisticCountBelow(int k, boolean inclusive) {
+		int count = 0;
+		WAVLTree.IWAVLNode x = tree.getRoot();
+		for (int depth = 0; null != x && x.isRealNode(); depth++) {
+			if (depth > MAX_DEPTH) {
+				return -1;
+			}
+			if (k > x.getKey() || (inclusive && k == x.getKey())) {
+				count += x.getLeft().getSubtreeSize() + 1;
+				x = x.getRight();
+			} else {
+				x = x.getLeft();
+			}
+		}
+		return count;
+	}
+
+  /**
+   * public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer)
+   *
+   * Passes every item with lo <= key <= hi to the consumer in increasing key order.
+   * The consumer has side effects, so this always runs under the read lock.
+   */
+	public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer) {
+		long stamp = lock.readLock();
+		try {
+			tree.forEachInRange(lo, hi, consumer);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of nodes in the tree.
+    */
+	public int size() {
+		long stamp = lock.tryOptimisticRead();
+		int size = tree.size();
+		if (lock.validate(stamp)) {
+			return size;
+		}
+
+		stamp = lock.readLock();
+		try {
+			return tree.size();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+   /**
+    * public String min()
+    *
+    * Returns the info of the item with the smallest key in the tree,
+    * or null if the tree is empty
+    */
+	public String min() {
+		long stamp = lock.tryOptimisticRead();
+		if (0 != stamp) {
+			try {
+				String v = tree.min();
+				if (lock.validate(stamp)) {
+					return v;
+				}
+			} catch (RuntimeException e) {
+				// a torn read, retry under the lock
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			return tree.min();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+   /**
+    * public String max()
+    *
+    * Returns the info of the item with the largest key in the tree,
+    * or null if the tree is empty
+    */
+	public String max() {
+		long stamp = lock.tryOptimisticRead();
+		if (0 != stamp) {
+			try {
+				String v = tree.max();
+				if (lock.validate(stamp)) {
+					return v;
+				}
+			} catch (RuntimeException e) {
+				// a torn read, retry under the lock
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			return tree.max();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+  /**
+   * public int insert(int k, String i)
+   *
+   * inserts an item with key k and info i, as WAVLTree.insert does.
+   */
+	public int insert(int k, String i) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.insert(k, i);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+  /**
+   * public int delete(int k)
+   *
+   * deletes the item with key k, as WAVLTree.delete does.
+   */
+	public int delete(int k) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.delete(k);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+package WAVLTree;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *
+ * DurableWAVLTree
+ *
+ * A thread-safe WAVL Tree whose inserts and deletes are recorded in a
+ * WriteAheadLog before they return. Under a write lock a change is first
+ * logged and only then applied, and the fsync happens after the lock is
+ * released, so concurrent writers share fsyncs through the log's group commit.
+ * Once a sync has failed, the log and so the tree reject every write;
+ * open the tree again to recover what reached the disk.
+ *
+ * checkpoint() writes a snapshot and empties the log; open() recovers by
+ * loading the latest snapshot and replaying the log on top of it. A crash
+ * between the two steps of a checkpoint replays the old log over the new
+ * snapshot, which ends in the same tree because only inserts and deletes
+ * that changed the tree are logged.
+ *
+ */
+
+public class DurableWAVLTree {
+	private final WAVLTree tree;
+	private final WriteAheadLog log;
+	private final Path snapshotPath;
+	private final ReentrantReadWriteLock lock;
+
+	private DurableWAVLTree(WAVLTree tree, WriteAheadLog log, Path snapshotPath) {
+		this.tree = tree;
+		this.log = log;
+		this.snapshotPath = snapshotPath;
+		this.lock = new ReentrantReadWriteLock();
+	}
+
+  /**
+   * public static DurableWAVLTree open(Path snapshotPath, Path logPath)
+   *
+   * Recovers the tree from the snapshot at snapshotPath, if there is one,
+   * and the log at logPath, and keeps logging to logPath.
+   */
+	public static DurableWAVLTree open(Path snapshotPath, Path logPath) throws IOException {
+		WAVLTree tree = Files.exists(snapshotPath)
+				? MappedWAVLTree.open(snapshotPath).toWAVLTree()
+				: new WAVLTree();
+
+		WriteAheadLog log = WriteAheadLog.open(logPath);
+		try {
+			log.replay(tree);
+		} catch (IOException e) {
+			log.close();
+			throw e;
+		}
+		return new DurableWAVLTree(tree, log, snapshotPath);
+	}
+
+  /**
+   * public int insert(int k, String i)
+   *
+   * inserts an item with key k and info i, as WAVLTree.insert does,
+   * and returns once the insert is durable.
+   */
+	public int insert(int k, String i) throws IOException {
+		int res;
+		long lsn;
+		lock.writeLock().lock();
+		try {
+			log.checkFailure();
+			if (contains(k)) {
+				return -1;
+			}
+			lsn = log.appendInsert(k, i);
+			res = tree.insert(k, i);
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(lsn);
+		return res;
+	}
+
+  /**
+   * public int delete(int k)
+   *
+   * deletes the item with key k, as WAVLTree.delete does,
+   * and returns once the delete is durable.
+   */
+	public int delete(int k) throws IOException {
+		int res;
+		long lsn;
+		lock.writeLock().lock();
+		try {
+			log.checkFailure();
+			if (!contains(k)) {
+				return -1;
+			}
+			lsn = log.appendDelete(k);
+			res = tree.delete(k);
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(lsn);
+		return res;
+	}
+
+	// guarded by the lock
+	private boolean contains(int k) {
+		WAVLTree.IWAVLNode x = tree.floor(k);
+		return null != x && x.getKey() == k;
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists in the tree
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		lock.readLock().lock();
+		try {
+			return tree.search(k);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+   /**
+    * public String select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0
+    * (returns "-1" if i is out of range), as WAVLTree.select does.
+    */
+	public String select(int i) {
+		lock.readLock().lock();
+		try {
+			return tree.select(i);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of nodes in the tree.
+    */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return tree.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+  /**
+   * public void checkpoint()
+   *
+   * Atomically replaces the snapshot with the current tree and empties the log.
+   * Writers wait while the snapshot is written.
+   */
+	public void checkpoint() throws IOException {
+		Path tmp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+
+		lock.writeLock().lock();
+		try {
+			tree.writeSnapshot(tmp);
+			try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				ch.force(true);
+			}
+			Files.move(tmp, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			// the rename is durable only once the directory is, and the log must outlive it
+			try (FileChannel dir = FileChannel.open(snapshotPath.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+				dir.force(true);
+			}
+			log.reset();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+  /**
+   * public void close()
+   *
+   * Syncs and closes the log.
+   */
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			log.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+package WAVLTree;
+
+/**
+ *
+ * FrozenWAVLTree
+ *
+ * An immutable search structure built by WAVLTree.freeze(), for read-mostly
+ * tables. The keys are stored in Eytzinger (BFS) order in a primitive array:
+ * the children of slot i are the slots 2i and 2i+1, so a search walks one
+ * array without pointers, the top levels share a few cache lines, and the
+ * descent has no data-dependent branch. Every slot also stores its position
+ * in key order, which gives rank and select without subtree sizes.
+ *
+ */
+
+public class FrozenWAVLTree {
+	private final int n;
+	private final int[] keys;      // Eytzinger order, slot 0 unused
+	private final int[] positions; // positions[i] is the rank of keys[i]
+	private final String[] values; // in key order
+
+	// keys and values in strictly increasing key order
+	FrozenWAVLTree(int[] sortedKeys, String[] sortedValues) {
+		n = sortedKeys.length;
+		keys = new int[n + 1];
+		positions = new int[n + 1];
+		values = sortedValues;
+		fill(sortedKeys, 1, 0);
+	}
+
+	/*
+	 * lays the subtree of slot i out in key order from sorted[next], returns the next position
+	 */
+	private int fill(int[] sorted, int i, int next) {
+		if (i > n) {
+			return next;
+		}
+		next = fill(sorted, 2 * i, next);
+		keys[i] = sorted[next];
+		positions[i] = next;
+		return fill(sorted, 2 * i + 1, next + 1);
+	}
+
+	/*
+	 * the slot of the smallest key >= k, or 0 if there is none
+	 */
+	private int lowerBound(int k) {
+		int i = 1;
+		while (i <= n) {
+			// compiles to a conditional move, not a branch
+			i = 2 * i + ((keys[i] < k) ? 1 : 0);
+		}
+		// undo the right turns taken after the last left turn, and that left turn
+		return i >>> (Integer.numberOfTrailingZeros(~i) + 1);
+	}
+
+  /**
+   * public boolean empty()
+   *
+   * returns true if and only if the tree is empty
+   *
+   */
+	public boolean empty() {
+		return 0 == n;
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of items in the tree.
+    */
+	public int size() {
+		return n;
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists in the tree
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		int i = lowerBound(k);
+		return (0 != i && keys[i] == k) ? values[positions[i]] : null;
+	}
+
+   /**
+    * public String select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0
+    * (returns "-1" if i is out of range), as WAVLTree.select does.
+    */
+	public String select(int i) {
+		if (0 > i || i >= n) {
+			return "-1";
+		}
+		return values[i];
+	}
+
+  /**
+   * public int rank(int k)
+   *
+   * Returns the number of keys in the tree smaller than k.
+   */
+	public int rank(int k) {
+		int i = lowerBound(k);
+		return (0 == i) ? n : positions[i];
+	}
+
+  /**
+   * public int countInRange(int lo, int hi)
+   *
+   * Returns the number of keys k in the tree with lo <= k <= hi.
+   */
+	public int countInRange(int lo, int hi) {
+		if (lo > hi) {
+			return 0;
+		}
+		int above = (Integer.MAX_VALUE == hi) ? n : rank(hi + 1);
+		return above - rank(lo);
+	}
+
+   /**
+    * public String min()
+    *
+    * Returns the info of the item with the smallest key in the tree,
+    * or null if the tree is empty
+    */
+	public String min() {
+		return (0 == n) ? null : values[0];
+	}
+
+   /**
+    * public String max()
+    *
+    * Returns the info of the item with the largest key in the tree,
+    * or null if the tree is empty
+    */
+	public String max() {
+		return (0 == n) ? null : values[n - 1];
+	}
+
+  /**
+   * public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer)
+   *
+   * Passes every item with lo <= key <= hi to the consumer in increasing key order.
+   */
+	public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer) {
+		if (lo > hi) {
+			return;
+		}
+		for (int i = lowerBound(lo); 0 != i && keys[i] <= hi; i = nextSlot(i)) {
+			consumer.accept(keys[i], values[positions[i]]);
+		}
+	}
+
+	/*
+	 * the slot of the next key in order, 0 after the largest
+	 */
+	private int nextSlot(int i) {
+		if (2 * i + 1 <= n) {
+			i = 2 * i + 1;
+			while (2 * i <= n) {
+				i = 2 * i;
+			}
+			return i;
+		}
+		// climb over the right turns and one left turn
+		return i >>> (Integer.numberOfTrailingZeros(~i) + 1);
+	}
+
+  /**
+   * public int[] keysToArray()
+   *
+   * Returns a sorted array which contains all keys in the tree,
+   * or an empty array if the tree is empty.
+   */
+	public int[] keysToArray() {
+		int[] arr = new int[n];
+		for (int i = 1; i <= n; i++) {
+			arr[positions[i]] = keys[i];
+		}
+		return arr;
+	}
+
+  /**
+   * public String[] infoToArray()
+   *
+   * Returns an array which contains all info in the tree,
+   * sorted by their respective keys.
+   */
+	public String[] infoToArray() {
+		return values.clone();
+	}
+
+}
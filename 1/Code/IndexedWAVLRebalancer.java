@@ -0,0 +1,227 @@
+package WAVLTree;
+
+/**
+ *
+ * IndexedWAVLRebalancer
+ *
+ * The rank rules of WAVL insertion and deletion for the trees that address
+ * their nodes by an int index instead of a reference, and keep the node
+ * fields in storage of their own: CompactWAVLTree in parallel arrays,
+ * OffHeapWAVLTree in direct memory and PagedWAVLTree in file pages.
+ * A tree hands its fields over as Nodes, together with the index it uses
+ * for a missing node.
+ *
+ * The step counts are those of WAVLTree: a promotion or demotion is one step,
+ * a single rotation one more and a double rotation two more.
+ *
+ */
+
+final class IndexedWAVLRebalancer {
+
+	/*
+	 * the fields of the nodes of one tree, x is never the missing node
+	 */
+	interface Nodes {
+		int left(int x);
+		int right(int x);
+		int parent(int x);
+		int rank(int x);
+		void setLeft(int x, int c);
+		void setRight(int x, int c);
+		void setParent(int x, int p);
+		void setRank(int x, int r);
+		void setRoot(int x);
+		// recomputes the size of the subtree of x from its children
+		void updateSize(int x);
+	}
+
+	private final Nodes nodes;
+	private final int nil;
+
+	IndexedWAVLRebalancer(Nodes nodes, int nil) {
+		this.nodes = nodes;
+		this.nil = nil;
+	}
+
+	/*
+	 * x is a node whose rank may equal its parent's rank (a 0-child),
+	 * promote up the tree and finish with at most two rotations
+	 */
+	int rebalanceInsert(int x) {
+		int steps = 0;
+		int p = nodes.parent(x);
+
+		while (nil != p && nodes.rank(p) == nodes.rank(x)) {
+			boolean xIsLeft = (nodes.left(p) == x);
+			int s = xIsLeft ? nodes.right(p) : nodes.left(p);
+
+			// sibling is a 1-child - promote and move up
+			if (1 == nodes.rank(p) - rankOf(s)) {
+				nodes.setRank(p, nodes.rank(p) + 1);
+				steps++;
+				x = p;
+				p = nodes.parent(x);
+				continue;
+			}
+
+			// sibling is a 2-child - rotate
+			int inner = xIsLeft ? nodes.right(x) : nodes.left(x);
+			if (nil == inner || 2 == nodes.rank(x) - nodes.rank(inner)) {
+				if (xIsLeft) {
+					rotateRight(p);
+				} else {
+					rotateLeft(p);
+				}
+				nodes.setRank(p, nodes.rank(p) - 1);
+				steps += 1;
+			} else {
+				if (xIsLeft) {
+					rotateLeft(x);
+					rotateRight(p);
+				} else {
+					rotateRight(x);
+					rotateLeft(p);
+				}
+				nodes.setRank(inner, nodes.rank(inner) + 1);
+				nodes.setRank(x, nodes.rank(x) - 1);
+				nodes.setRank(p, nodes.rank(p) - 1);
+				steps += 2;
+			}
+			break;
+		}
+
+		return steps;
+	}
+
+	/*
+	 * x (possibly nil) is the child of p that replaced the deleted node,
+	 * demote up the tree and finish with at most two rotations
+	 */
+	int rebalanceDelete(int x, int p) {
+		int steps = 0;
+
+		if (nil == p) {
+			return 0;
+		}
+
+		// p became a 2,2 leaf
+		if (nil == nodes.left(p) && nil == nodes.right(p) && 1 == nodes.rank(p)) {
+			nodes.setRank(p, 0);
+			steps++;
+			x = p;
+			p = nodes.parent(x);
+		}
+
+		while (nil != p && 3 == nodes.rank(p) - rankOf(x)) {
+			boolean xIsLeft = (nodes.left(p) == x);
+			int s = xIsLeft ? nodes.right(p) : nodes.left(p);
+
+			// sibling is a 2-child - demote and move up
+			if (2 == nodes.rank(p) - rankOf(s)) {
+				nodes.setRank(p, nodes.rank(p) - 1);
+				steps++;
+				x = p;
+				p = nodes.parent(x);
+				continue;
+			}
+
+			int outer = xIsLeft ? nodes.right(s) : nodes.left(s);
+			int inner = xIsLeft ? nodes.left(s) : nodes.right(s);
+
+			// sibling is a 2,2 node - double demote and move up
+			if (2 == nodes.rank(s) - rankOf(outer) && 2 == nodes.rank(s) - rankOf(inner)) {
+				nodes.setRank(s, nodes.rank(s) - 1);
+				nodes.setRank(p, nodes.rank(p) - 1);
+				steps += 2;
+				x = p;
+				p = nodes.parent(x);
+				continue;
+			}
+
+			if (1 == nodes.rank(s) - rankOf(outer)) {
+				// single rotation
+				if (xIsLeft) {
+					rotateLeft(p);
+				} else {
+					rotateRight(p);
+				}
+				nodes.setRank(s, nodes.rank(s) + 1);
+				nodes.setRank(p, nodes.rank(p) - 1);
+				if (nil == nodes.left(p) && nil == nodes.right(p)) {
+					nodes.setRank(p, nodes.rank(p) - 1);
+				}
+				steps += 1;
+			} else {
+				// double rotation
+				if (xIsLeft) {
+					rotateRight(s);
+					rotateLeft(p);
+				} else {
+					rotateLeft(s);
+					rotateRight(p);
+				}
+				nodes.setRank(inner, nodes.rank(inner) + 2);
+				nodes.setRank(s, nodes.rank(s) - 1);
+				nodes.setRank(p, nodes.rank(p) - 2);
+				steps += 2;
+			}
+			break;
+		}
+
+		return steps;
+	}
+
+	/*
+	 * the left child of x becomes the root of x's subtree
+	 */
+	private void rotateRight(int x) {
+		int y = nodes.left(x);
+		int b = nodes.right(y);
+
+		nodes.setLeft(x, b);
+		if (nil != b) {
+			nodes.setParent(b, x);
+		}
+		replaceChild(nodes.parent(x), x, y);
+		nodes.setRight(y, x);
+		nodes.setParent(x, y);
+
+		nodes.updateSize(x);
+		nodes.updateSize(y);
+	}
+
+	/*
+	 * the right child of x becomes the root of x's subtree
+	 */
+	private void rotateLeft(int x) {
+		int y = nodes.right(x);
+		int b = nodes.left(y);
+
+		nodes.setRight(x, b);
+		if (nil != b) {
+			nodes.setParent(b, x);
+		}
+		replaceChild(nodes.parent(x), x, y);
+		nodes.setLeft(y, x);
+		nodes.setParent(x, y);
+
+		nodes.updateSize(x);
+		nodes.updateSize(y);
+	}
+
+	private void replaceChild(int p, int oldChild, int newChild) {
+		nodes.setParent(newChild, p);
+		if (nil == p) {
+			nodes.setRoot(newChild);
+		} else if (nodes.left(p) == oldChild) {
+			nodes.setLeft(p, newChild);
+		} else {
+			nodes.setRight(p, newChild);
+		}
+	}
+
+	private int rankOf(int x) {
+		return (nil == x) ? -1 : nodes.rank(x);
+	}
+
+}
@@ -0,0 +1,290 @@
+package WAVLTree;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * IntWAVLMultiset
+ *
+ * A multiset of int values, kept as a WAVL Tree with one node per distinct
+ * value and its multiplicity. Every node also keeps the total multiplicity
+ * of its subtree, updated on insert, delete and every rotation, so rank,
+ * select and quantiles count duplicates. An update takes O(log d) for d
+ * distinct values, and adding a value that is already there only increments
+ * its count.
+ *
+ * With a window, the multiset holds the last window values added: once it is
+ * full, every add expires the oldest value, which gives exact percentiles
+ * over a sliding window of a stream.
+ *
+ */
+
+public class IntWAVLMultiset {
+
+	private static final class CountNode extends AbstractWAVLMap.Node<Void, CountNode> {
+		private final int key;
+		private long count;
+		private long total; // of the subtree
+
+		private CountNode(int k) {
+			super(null);
+			key = k;
+			count = 1;
+			total = 1;
+		}
+	}
+
+	private static final class Counts extends AbstractWAVLMap<Void, CountNode> {
+		private Counts() {
+			super(null, true);
+		}
+
+		@Override
+		protected boolean updateNode(CountNode x) {
+			long t = x.count + totalOf(x.left) + totalOf(x.right);
+			boolean changed = (t != x.total);
+			x.total = t;
+			return changed;
+		}
+	}
+
+	private final Counts tree;
+
+	// the values in the window in order of arrival, null without a window
+	private final int[] window;
+	private int oldest;
+	private int filled;
+
+	public IntWAVLMultiset() {
+		tree = new Counts();
+		window = null;
+	}
+
+	// keeps the last windowSize values added, windowSize >= 1
+	public IntWAVLMultiset(int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("windowSize must be positive");
+		}
+		tree = new Counts();
+		window = new int[windowSize];
+	}
+
+  /**
+   * public boolean empty()
+   *
+   * returns true if and only if the multiset is empty
+   *
+   */
+	public boolean empty() {
+		return tree.empty();
+	}
+
+   /**
+    * public long size()
+    *
+    * Returns the number of values in the multiset, counting duplicates.
+    */
+	public long size() {
+		return totalOf(tree.root);
+	}
+
+   /**
+    * public int distinct()
+    *
+    * Returns the number of distinct values in the multiset.
+    */
+	public int distinct() {
+		return tree.size();
+	}
+
+  /**
+   * public long count(int v)
+   *
+   * Returns the multiplicity of v, 0 if it is not in the multiset.
+   */
+	public long count(int v) {
+		CountNode x = find(v);
+		return (null == x) ? 0 : x.count;
+	}
+
+  /**
+   * public void add(int v)
+   *
+   * adds one occurrence of v. with a window that is full,
+   * the oldest value in the window is removed first.
+   */
+	public void add(int v) {
+		if (null != window) {
+			if (filled == window.length) {
+				expireOldest();
+			}
+			window[(oldest + filled) % window.length] = v;
+			filled++;
+		}
+
+		CountNode y = null;
+		CountNode x = tree.root;
+		while (null != x) {
+			if (x.key == v) {
+				x.count++;
+				tree.updateFromNode(x);
+				return;
+			}
+			y = x;
+			x = (v < x.key) ? x.left : x.right;
+		}
+		tree.insertNode(y, new CountNode(v), null != y && v < y.key);
+	}
+
+  /**
+   * public boolean remove(int v)
+   *
+   * removes one occurrence of v, returns false if v is not in the multiset.
+   * a multiset with a window only drops values through expireOldest,
+   * and throws IllegalStateException.
+   */
+	public boolean remove(int v) {
+		if (null != window) {
+			throw new IllegalStateException("values leave a window in order, use expireOldest");
+		}
+		return removeOne(v);
+	}
+
+  /**
+   * public void expireOldest()
+   *
+   * removes the oldest value of the window.
+   * precondition: the multiset has a window and is not empty,
+   * otherwise IllegalStateException is thrown
+   */
+	public void expireOldest() {
+		if (null == window || 0 == filled) {
+			throw new IllegalStateException("no window or the window is empty");
+		}
+		removeOne(window[oldest]);
+		oldest = (oldest + 1) % window.length;
+		filled--;
+	}
+
+	private boolean removeOne(int v) {
+		CountNode x = find(v);
+		if (null == x) {
+			return false;
+		}
+		if (1 < x.count) {
+			x.count--;
+			tree.updateFromNode(x);
+		} else {
+			tree.deleteNode(x);
+		}
+		return true;
+	}
+
+  /**
+   * public long rank(int v)
+   *
+   * Returns the number of values in the multiset smaller than v, counting duplicates.
+   */
+	public long rank(int v) {
+		long r = 0;
+		CountNode x = tree.root;
+		while (null != x) {
+			if (v > x.key) {
+				r += totalOf(x.left) + x.count;
+				x = x.right;
+			} else {
+				x = x.left;
+			}
+		}
+		return r;
+	}
+
+  /**
+   * public int select(long i)
+   *
+   * Returns the i'th smallest value, counting from 0 and counting duplicates.
+   * precondition: 0 <= i < size(), otherwise IndexOutOfBoundsException is thrown
+   */
+	public int select(long i) {
+		if (0 > i || i >= size()) {
+			throw new IndexOutOfBoundsException("index " + i + " of a multiset of size " + size());
+		}
+
+		CountNode x = tree.root;
+		while (true) {
+			long l = totalOf(x.left);
+			if (i < l) {
+				x = x.left;
+			} else if (i < l + x.count) {
+				return x.key;
+			} else {
+				i -= l + x.count;
+				x = x.right;
+			}
+		}
+	}
+
+  /**
+   * public int quantile(double q)
+   *
+   * Returns the q-quantile by the nearest-rank method, the smallest value v
+   * such that at least q * size() values are <= v; quantile(0.99) is the p99.
+   * q * size() is computed exactly on the decimal value of q, so quantile(0.07)
+   * of 100 values is the 7th smallest, not the 8th as in floating point.
+   * precondition: 0 <= q <= 1 and the multiset is not empty,
+   * otherwise IllegalArgumentException or NoSuchElementException is thrown
+   */
+	public int quantile(double q) {
+		if (!(0 <= q && q <= 1)) {
+			throw new IllegalArgumentException("q must be in [0, 1]");
+		}
+		long n = size();
+		if (0 == n) {
+			throw new NoSuchElementException("the multiset is empty");
+		}
+		long i = BigDecimal.valueOf(q).multiply(BigDecimal.valueOf(n))
+				.setScale(0, RoundingMode.CEILING).longValueExact() - 1;
+		return select(Math.max(0, i));
+	}
+
+   /**
+    * public int min()
+    *
+    * Returns the smallest value.
+    * precondition: the multiset is not empty, otherwise NoSuchElementException is thrown
+    */
+	public int min() {
+		if (tree.empty()) {
+			throw new NoSuchElementException("the multiset is empty");
+		}
+		return tree.firstNode().key;
+	}
+
+   /**
+    * public int max()
+    *
+    * Returns the largest value.
+    * precondition: the multiset is not empty, otherwise NoSuchElementException is thrown
+    */
+	public int max() {
+		if (tree.empty()) {
+			throw new NoSuchElementException("the multiset is empty");
+		}
+		return tree.lastNode().key;
+	}
+
+	private CountNode find(int v) {
+		CountNode x = tree.root;
+		while (null != x && x.key != v) {
+			x = (v < x.key) ? x.left : x.right;
+		}
+		return x;
+	}
+
+	private static long totalOf(CountNode x) {
+		return (null == x) ? 0 : x.total;
+	}
+
+}
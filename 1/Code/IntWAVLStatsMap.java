@@ -0,0 +1,68 @@
+package WAVLTree;
+
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+/**
+ *
+ * IntWAVLStatsMap
+ *
+ * An IntWAVLMap which keeps RangeStats of a long metric of its values,
+ * answering sum, minimum and maximum queries over key ranges in O(log n).
+ *
+ */
+
+public class IntWAVLStatsMap<V> extends IntWAVLMap<V> {
+
+	public IntWAVLStatsMap(ToLongFunction<? super V> metric) {
+		super(RangeStats.augmenter(metric));
+	}
+
+  /**
+   * public RangeStats rangeStats(int lo, int hi)
+   *
+   * Returns the stats of the metric over the items with lo <= key <= hi,
+   * or null if there are no such items.
+   */
+	public RangeStats rangeStats(int lo, int hi) {
+		return aggregate(lo, hi);
+	}
+
+  /**
+   * public long rangeSum(int lo, int hi)
+   *
+   * Returns the sum of the metric over the items with lo <= key <= hi (0 if there are none).
+   */
+	public long rangeSum(int lo, int hi) {
+		RangeStats s = rangeStats(lo, hi);
+		return (null == s) ? 0 : s.getSum();
+	}
+
+  /**
+   * public long rangeMin(int lo, int hi)
+   *
+   * Returns the minimal metric over the items with lo <= key <= hi.
+   * precondition: there is such an item, otherwise NoSuchElementException is thrown
+   */
+	public long rangeMin(int lo, int hi) {
+		return nonEmpty(rangeStats(lo, hi)).getMin();
+	}
+
+  /**
+   * public long rangeMax(int lo, int hi)
+   *
+   * Returns the maximal metric over the items with lo <= key <= hi.
+   * precondition: there is such an item, otherwise NoSuchElementException is thrown
+   */
+	public long rangeMax(int lo, int hi) {
+		return nonEmpty(rangeStats(lo, hi)).getMax();
+	}
+
+	private static RangeStats nonEmpty(RangeStats s) {
+		if (null == s) {
+			throw new NoSuchElementException("no items in range");
+		}
+		return s;
+	}
+
+}
@@ -0,0 +1,214 @@
+package WAVLTree;
+
+/**
+ *
+ * IntervalWAVLMap
+ *
+ * A WAVL Tree map of distinct half-open int intervals [start, end) to values
+ * of any type, ordered by start and then by end. Every node also keeps the
+ * largest end in its subtree, updated with the subtree sizes on insert,
+ * delete and every rotation, so a query skips each subtree whose intervals
+ * all end before the query range starts, and each one whose intervals all
+ * start after it.
+ *
+ * The queries report k intervals in O((k + 1) log n) and do not allocate.
+ *
+ */
+
+public class IntervalWAVLMap<V> extends AbstractWAVLMap<V, IntervalWAVLMap.Node<V>> {
+
+	protected static final class Node<V> extends AbstractWAVLMap.Node<V, Node<V>> {
+		private final int start;
+		private final int end;
+		private int maxEnd; // of the subtree
+
+		private Node(int start, int end, V v) {
+			super(v);
+			this.start = start;
+			this.end = end;
+			this.maxEnd = end;
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		public int getEnd() {
+			return end;
+		}
+	}
+
+	public IntervalWAVLMap() {
+		super(null, true);
+	}
+
+	@Override
+	protected boolean updateNode(Node<V> x) {
+		int m = x.end;
+		if (null != x.left && x.left.maxEnd > m) {
+			m = x.left.maxEnd;
+		}
+		if (null != x.right && x.right.maxEnd > m) {
+			m = x.right.maxEnd;
+		}
+		boolean changed = (m != x.maxEnd);
+		x.maxEnd = m;
+		return changed;
+	}
+
+	private static int compare(int start, int end, Node<?> x) {
+		if (start != x.start) {
+			return (start < x.start) ? -1 : 1;
+		}
+		return Integer.compare(end, x.end);
+	}
+
+  /**
+   * public V search(int start, int end)
+   *
+   * returns the value of the interval [start, end) if it is in the map
+   * otherwise, returns null
+   */
+	public V search(int start, int end) {
+		Node<V> x = root;
+		while (null != x) {
+			int c = compare(start, end, x);
+			if (0 == c) {
+				return x.value;
+			}
+			x = (c < 0) ? x.left : x.right;
+		}
+		return null;
+	}
+
+  /**
+   * public int insert(int start, int end, V v)
+   *
+   * inserts the interval [start, end) with value v to the map.
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+   * returns -1 if the interval is already in the map.
+   * precondition: start < end, otherwise IllegalArgumentException is thrown
+   */
+	public int insert(int start, int end, V v) {
+		if (start >= end) {
+			throw new IllegalArgumentException("empty interval [" + start + ", " + end + ")");
+		}
+
+		Node<V> y = null;
+		Node<V> x = root;
+		int c = 0;
+		while (null != x) {
+			c = compare(start, end, x);
+			if (0 == c) {
+				return -1;
+			}
+			y = x;
+			x = (c < 0) ? x.left : x.right;
+		}
+		return insertNode(y, new Node<V>(start, end, v), c < 0);
+	}
+
+  /**
+   * public int delete(int start, int end)
+   *
+   * deletes the interval [start, end) from the map, if it is there.
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+   * returns -1 if the interval was not found in the map.
+   */
+	public int delete(int start, int end) {
+		Node<V> x = root;
+		while (null != x) {
+			int c = compare(start, end, x);
+			if (0 == c) {
+				return deleteNode(x);
+			}
+			x = (c < 0) ? x.left : x.right;
+		}
+		return -1;
+	}
+
+  /**
+   * public void stab(int point, IntervalConsumer<? super V> consumer)
+   *
+   * Passes every interval with start <= point < end to the consumer,
+   * in increasing order of start.
+   */
+	public void stab(int point, IntervalConsumer<? super V> consumer) {
+		overlap(root, point, point, consumer);
+	}
+
+  /**
+   * public void overlap(int lo, int hi, IntervalConsumer<? super V> consumer)
+   *
+   * Passes every interval that shares a point with the closed range [lo, hi],
+   * start <= hi and lo < end, to the consumer, in increasing order of start.
+   */
+	public void overlap(int lo, int hi, IntervalConsumer<? super V> consumer) {
+		if (lo > hi) {
+			return;
+		}
+		overlap(root, lo, hi, consumer);
+	}
+
+	private void overlap(Node<V> x, int lo, int hi, IntervalConsumer<? super V> consumer) {
+		// nothing in the subtree ends after lo
+		if (null == x || x.maxEnd <= lo) {
+			return;
+		}
+		overlap(x.left, lo, hi, consumer);
+		// x and its right subtree start after hi
+		if (x.start > hi) {
+			return;
+		}
+		if (x.end > lo) {
+			consumer.accept(x.start, x.end, x.value);
+		}
+		overlap(x.right, lo, hi, consumer);
+	}
+
+  /**
+   * public boolean overlaps(int lo, int hi)
+   *
+   * Returns true if and only if some interval shares a point with the
+   * closed range [lo, hi], in O(log n).
+   */
+	public boolean overlaps(int lo, int hi) {
+		if (lo > hi) {
+			return false;
+		}
+
+		Node<V> x = root;
+		while (null != x) {
+			if (x.start <= hi && lo < x.end) {
+				return true;
+			}
+			// if an interval on the left ends after lo but none overlaps,
+			// they all start after hi, and so do the ones on the right
+			x = (null != x.left && x.left.maxEnd > lo) ? x.left : x.right;
+		}
+		return false;
+	}
+
+   /**
+    * public int maxEnd()
+    *
+    * Returns the largest end of an interval in the map.
+    * precondition: the map is not empty, otherwise IllegalStateException is thrown
+    */
+	public int maxEnd() {
+		if (null == root) {
+			throw new IllegalStateException("the map is empty");
+		}
+		return root.maxEnd;
+	}
+
+   /**
+    * public interface IntervalConsumer
+    *
+    * Receives the intervals of a stabbing or overlap query.
+    */
+	public interface IntervalConsumer<V> {
+		void accept(int start, int end, V value);
+	}
+
+}
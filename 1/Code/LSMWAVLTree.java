@@ -0,0 +1,494 @@
+package WAVLTree;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ *
+ * LSMWAVLTree
+ *
+ * A write-optimized map with distinct integer keys and info in the style of
+ * a log-structured merge tree. Writes go to a small WAVLTree, the memtable;
+ * a full memtable is frozen into an immutable run of sorted primitive arrays,
+ * and a background thread merges runs of similar size once runsPerTier of
+ * them have piled up. An item that is not overwritten climbs at least one
+ * size tier with every merge, so it is merged at most log2(n) times, and
+ * there are O(runsPerTier log n) runs.
+ * Lookups check the memtable and then the runs, newest first. A delete
+ * leaves a tombstone that shadows the key in older runs, and compaction
+ * drops it once nothing older is left.
+ *
+ * By default insert, delete and search keep their WAVLTree semantics, so
+ * insert and delete look the key up first. A blind map skips that lookup:
+ * insert overwrites the info of an existing key and delete always writes its
+ * tombstone, so neither reads the runs, and duplicates are resolved by
+ * compaction. Both return the rebalancing steps of the memtable.
+ *
+ */
+
+public class LSMWAVLTree {
+	private static final int DEFAULT_MEMTABLE_SIZE = 1 << 12;
+	private static final int DEFAULT_RUNS_PER_TIER = 4;
+
+	// marks a deleted key, compared by identity
+	private static final String TOMBSTONE = new String("tombstone");
+	// returned by find for a key that is nowhere, compared by identity
+	private static final String ABSENT = new String("absent");
+
+	private final int memtableSize;
+	private final int runsPerTier;
+	private final boolean blind;
+
+	private WAVLTree memtable;    // guarded by this
+	private int size;             // live keys unless the map is blind, guarded by this
+	private volatile Run[] runs;  // newest first, replaced as a whole
+	private boolean compacting;   // guarded by this
+
+	private final ExecutorService compactor;
+
+	/*
+	 * an immutable sorted run, values[j] may be TOMBSTONE
+	 */
+	private static final class Run {
+		private final int[] keys;
+		private final String[] values;
+
+		private Run(int[] keys, String[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		// the value of k, TOMBSTONE, or ABSENT
+		private String find(int k) {
+			int lo = 0;
+			int hi = keys.length - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (keys[mid] < k) {
+					lo = mid + 1;
+				} else if (keys[mid] > k) {
+					hi = mid - 1;
+				} else {
+					return values[mid];
+				}
+			}
+			return ABSENT;
+		}
+
+		// index of the first key >= k
+		private int lowerBound(int k) {
+			int lo = 0;
+			int hi = keys.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (keys[mid] < k) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+
+	public LSMWAVLTree() {
+		this(DEFAULT_MEMTABLE_SIZE, DEFAULT_RUNS_PER_TIER, false);
+	}
+
+	public LSMWAVLTree(int memtableSize, int runsPerTier) {
+		this(memtableSize, runsPerTier, false);
+	}
+
+	// memtableSize >= 1, runsPerTier >= 2, blind writes skip the lookup of the key
+	public LSMWAVLTree(int memtableSize, int runsPerTier, boolean blind) {
+		if (memtableSize < 1 || runsPerTier < 2) {
+			throw new IllegalArgumentException("memtableSize must be positive and runsPerTier at least 2");
+		}
+		this.memtableSize = memtableSize;
+		this.runsPerTier = runsPerTier;
+		this.blind = blind;
+		this.memtable = new WAVLTree();
+		this.runs = new Run[0];
+		this.compactor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "wavl-lsm-compactor");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+  /**
+   * public boolean empty()
+   *
+   * returns true if and only if the map is empty
+   *
+   */
+	public boolean empty() {
+		return 0 == size();
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of live items. The map counts them as it goes,
+    * a blind one merges all runs to count them in O(n).
+    */
+	public int size() {
+		if (!blind) {
+			synchronized (this) {
+				return size;
+			}
+		}
+		int[] n = {0};
+		forEachLive(Integer.MIN_VALUE, Integer.MAX_VALUE, (k, v) -> n[0]++);
+		return n[0];
+	}
+
+   /**
+    * public int runCount()
+    *
+    * Returns the number of frozen runs.
+    */
+	public int runCount() {
+		return runs.length;
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		String v = find(k);
+		return (ABSENT == v) ? null : v;
+	}
+
+	/*
+	 * the info of k, or ABSENT if it is not a live key
+	 */
+	private String find(int k) {
+		WAVLTree.IWAVLNode x;
+		synchronized (this) {
+			x = memtable.treePosition(memtable.getRoot(), k);
+			if (null != x && x.getKey() == k) {
+				String v = x.getValue();
+				return (TOMBSTONE == v) ? ABSENT : v;
+			}
+		}
+
+		// read after the memtable, so a key frozen meanwhile is in a run we see
+		for (Run r : runs) {
+			String v = r.find(k);
+			if (ABSENT != v) {
+				return (TOMBSTONE == v) ? ABSENT : v;
+			}
+		}
+		return ABSENT;
+	}
+
+  /**
+   * public int insert(int k, String i)
+   *
+   * inserts an item with key k and info i.
+   * returns the number of rebalancing operations in the memtable,
+   * or -1 if an item with key k already exists.
+   * a blind map replaces the info of an existing key instead and never returns -1.
+   */
+	public synchronized int insert(int k, String i) {
+		if (!blind) {
+			if (ABSENT != find(k)) {
+				return -1;
+			}
+			size++;
+		}
+
+		// an older item or tombstone in the memtable is overwritten in place
+		if (memtable.replaceInfo(k, i)) {
+			return 0;
+		}
+		int steps = memtable.insert(k, i);
+		freezeIfFull();
+		return steps;
+	}
+
+  /**
+   * public int delete(int k)
+   *
+   * deletes the item with key k, if it is there.
+   * returns the number of rebalancing operations in the memtable,
+   * or -1 if an item with key k was not found.
+   * a blind map returns -1 only while it has no runs and k is not in the memtable.
+   */
+	public synchronized int delete(int k) {
+		if (!blind) {
+			if (ABSENT == find(k)) {
+				return -1;
+			}
+			size--;
+		}
+
+		if (0 == runs.length) {
+			return memtable.delete(k);
+		}
+		// the key may live in a run, which only a tombstone can shadow
+		if (memtable.replaceInfo(k, TOMBSTONE)) {
+			return 0;
+		}
+		int steps = memtable.insert(k, TOMBSTONE);
+		freezeIfFull();
+		return steps;
+	}
+
+  /**
+   * public int[] keysToArray()
+   *
+   * Returns a sorted array which contains all live keys,
+   * or an empty array if the map is empty.
+   */
+	public int[] keysToArray() {
+		return liveItems().keys;
+	}
+
+  /**
+   * public String[] infoToArray()
+   *
+   * Returns an array which contains all live info,
+   * sorted by their respective keys.
+   */
+	public String[] infoToArray() {
+		return liveItems().values;
+	}
+
+  /**
+   * public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer)
+   *
+   * Passes every live item with lo <= key <= hi to the consumer in increasing key order.
+   */
+	public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer) {
+		if (lo > hi) {
+			return;
+		}
+		forEachLive(lo, hi, consumer);
+	}
+
+	/*
+	 * passes the live items with lo <= key <= hi to the consumer in key order,
+	 * merging the memtable and the runs as they stream by: every step takes the
+	 * smallest key at the heads of the sources, from the newest source holding it,
+	 * and moves past that key in the older ones
+	 */
+	private void forEachLive(int lo, int hi, WAVLTree.EntryConsumer consumer) {
+		Run[] sources;
+		synchronized (this) {
+			Run[] levels = runs;
+			sources = new Run[levels.length + 1];
+			sources[0] = freeze(memtable, lo, hi);
+			System.arraycopy(levels, 0, sources, 1, levels.length);
+		}
+
+		int[] at = new int[sources.length];
+		int[] end = new int[sources.length];
+		for (int s = 0; s < sources.length; s++) {
+			at[s] = sources[s].lowerBound(lo);
+			end[s] = (Integer.MAX_VALUE == hi) ? sources[s].keys.length : sources[s].lowerBound(hi + 1);
+		}
+
+		while (true) {
+			int newest = -1;
+			for (int s = 0; s < sources.length; s++) {
+				if (at[s] < end[s] && (-1 == newest || sources[s].keys[at[s]] < sources[newest].keys[at[newest]])) {
+					newest = s;
+				}
+			}
+			if (-1 == newest) {
+				return;
+			}
+
+			int k = sources[newest].keys[at[newest]];
+			String v = sources[newest].values[at[newest]];
+			for (int s = newest; s < sources.length; s++) {
+				if (at[s] < end[s] && sources[s].keys[at[s]] == k) {
+					at[s]++;
+				}
+			}
+			if (TOMBSTONE != v) {
+				consumer.accept(k, v);
+			}
+		}
+	}
+
+	/*
+	 * all live items, collected from one merge of the sources
+	 */
+	private Run liveItems() {
+		int[][] keys = {new int[16]};
+		String[][] values = {new String[16]};
+		int[] n = {0};
+		forEachLive(Integer.MIN_VALUE, Integer.MAX_VALUE, (k, v) -> {
+			if (n[0] == keys[0].length) {
+				keys[0] = Arrays.copyOf(keys[0], 2 * n[0]);
+				values[0] = Arrays.copyOf(values[0], 2 * n[0]);
+			}
+			keys[0][n[0]] = k;
+			values[0][n[0]] = v;
+			n[0]++;
+		});
+		return new Run(Arrays.copyOf(keys[0], n[0]), Arrays.copyOf(values[0], n[0]));
+	}
+
+	/*
+	 * freezes the memtable into the newest run once it is full,
+	 * and starts a compaction if there are too many runs
+	 */
+	// guarded by this
+	private void freezeIfFull() {
+		if (memtable.size() < memtableSize) {
+			return;
+		}
+
+		Run frozen = freeze(memtable, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		Run[] current = runs;
+		Run[] next = new Run[current.length + 1];
+		next[0] = frozen;
+		System.arraycopy(current, 0, next, 1, current.length);
+		runs = next;
+		memtable = new WAVLTree();
+
+		scheduleCompaction();
+	}
+
+	// guarded by this
+	private void scheduleCompaction() {
+		if (!compacting && !compactor.isShutdown() && null != findTier(runs)) {
+			compacting = true;
+			compactor.execute(this::compact);
+		}
+	}
+
+	/*
+	 * the newest group of at least runsPerTier adjacent runs of one size tier,
+	 * as {first, count}, or null if there is none
+	 */
+	private int[] findTier(Run[] table) {
+		int i = 0;
+		while (i < table.length) {
+			int j = i + 1;
+			while (j < table.length && tier(table[j]) == tier(table[i])) {
+				j++;
+			}
+			if (j - i >= runsPerTier) {
+				return new int[] { i, j - i };
+			}
+			i = j;
+		}
+		return null;
+	}
+
+	// the power of two at or below the size of r
+	private static int tier(Run r) {
+		return 31 - Integer.numberOfLeadingZeros(r.keys.length);
+	}
+
+	/*
+	 * merges a group of runs of one size tier into one off the lock and swaps
+	 * it in for them. size-tiered: the merged run holds at least runsPerTier
+	 * times the smallest of its runs, so it lands at least one tier higher
+	 */
+	private void compact() {
+		Run[] taken = runs;
+		int[] group = findTier(taken);
+		int from = group[0];
+		int count = group[1];
+
+		// tombstones only shadow older runs, so they can go once the oldest run is merged
+		boolean oldest = (from + count == taken.length);
+		Run merged = taken[from + count - 1];
+		for (int j = from + count - 2; j >= from; j--) {
+			merged = merge(taken[j], merged, oldest);
+		}
+		int kept = (0 < merged.keys.length) ? 1 : 0; // only tombstones may have merged away
+
+		synchronized (this) {
+			Run[] current = runs;
+			int at = current.length - taken.length + from; // runs frozen while merging come first
+			Run[] next = new Run[current.length - count + kept];
+			System.arraycopy(current, 0, next, 0, at);
+			if (1 == kept) {
+				next[at] = merged;
+			}
+			System.arraycopy(current, at + count, next, at + kept, current.length - at - count);
+			runs = next;
+			compacting = false;
+			scheduleCompaction();
+		}
+	}
+
+  /**
+   * public void close()
+   *
+   * Stops the background compaction, the map stays readable and writable.
+   */
+	public synchronized void close() {
+		compactor.shutdown();
+	}
+
+	private static Run freeze(WAVLTree t, int lo, int hi) {
+		int n = t.countInRange(lo, hi);
+		int[] keys = new int[n];
+		String[] values = new String[n];
+		int[] j = {0};
+		t.forEachInRange(lo, hi, (k, v) -> {
+			keys[j[0]] = k;
+			values[j[0]] = v;
+			j[0]++;
+		});
+		return new Run(keys, values);
+	}
+
+	/*
+	 * merges two runs, newer wins on equal keys; drops tombstones
+	 * if older holds the oldest data, as nothing below can be shadowed
+	 */
+	private static Run merge(Run newer, Run older, boolean dropTombstones) {
+		int[] keys = new int[newer.keys.length + older.keys.length];
+		String[] values = new String[keys.length];
+		int a = 0;
+		int b = 0;
+		int n = 0;
+
+		while (a < newer.keys.length || b < older.keys.length) {
+			int k;
+			String v;
+			if (b == older.keys.length || (a < newer.keys.length && newer.keys[a] <= older.keys[b])) {
+				k = newer.keys[a];
+				v = newer.values[a];
+				if (b < older.keys.length && older.keys[b] == k) {
+					b++;
+				}
+				a++;
+			} else {
+				k = older.keys[b];
+				v = older.values[b];
+				b++;
+			}
+
+			if (dropTombstones && TOMBSTONE == v) {
+				continue;
+			}
+			keys[n] = k;
+			values[n] = v;
+			n++;
+		}
+
+		if (n == keys.length) {
+			return new Run(keys, values);
+		}
+		int[] k2 = new int[n];
+		String[] v2 = new String[n];
+		System.arraycopy(keys, 0, k2, 0, n);
+		System.arraycopy(values, 0, v2, 0, n);
+		return new Run(k2, v2);
+	}
+
+}
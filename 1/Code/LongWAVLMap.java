@@ -0,0 +1,131 @@
+package WAVLTree;
+
+/**
+ *
+ * LongWAVLMap
+ *
+ * A WAVL Tree map with distinct primitive long keys and values of any type.
+ * Keys are compared directly and never boxed.
+ *
+ */
+
+public class LongWAVLMap<V> extends AbstractWAVLMap<V, LongWAVLMap.Node<V>> {
+
+	protected static final class Node<V> extends AbstractWAVLMap.Node<V, Node<V>> {
+		private final long key;
+
+		private Node(long k, V v) {
+			super(v);
+			key = k;
+		}
+
+		public long getKey() {
+			return key;
+		}
+	}
+
+	public LongWAVLMap() {
+		super(null);
+	}
+
+	// keeps the aggregate of the values of every subtree, see aggregate(lo, hi)
+	public LongWAVLMap(Augmenter<? super V, ?> augmenter) {
+		super(augmenter);
+	}
+
+  /**
+   * public V search(long k)
+   *
+   * returns the value of an item with key k if it exists in the map
+   * otherwise, returns null
+   */
+	public V search(long k) {
+		Node<V> x = root;
+		while (null != x && x.key != k) {
+			x = (k < x.key) ? x.left : x.right;
+		}
+		return (null == x) ? null : x.value;
+	}
+
+  /**
+   * public int insert(long k, V v)
+   *
+   * inserts an item with key k and value v to the map.
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+   * returns -1 if an item with key k already exists in the map.
+   */
+	public int insert(long k, V v) {
+		Node<V> y = null;
+		Node<V> x = root;
+		while (null != x) {
+			if (x.key == k) {
+				return -1;
+			}
+			y = x;
+			x = (k < x.key) ? x.left : x.right;
+		}
+		return insertNode(y, new Node<V>(k, v), null != y && k < y.key);
+	}
+
+  /**
+   * public int delete(long k)
+   *
+   * deletes an item with key k from the map, if it is there.
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+   * returns -1 if an item with key k was not found in the map.
+   */
+	public int delete(long k) {
+		Node<V> x = root;
+		while (null != x && x.key != k) {
+			x = (k < x.key) ? x.left : x.right;
+		}
+		return (null == x) ? -1 : deleteNode(x);
+	}
+
+  /**
+   * public <A> A aggregate(long lo, long hi)
+   *
+   * Returns the aggregate of the values of the items with lo <= key <= hi,
+   * of the type of the augmenter given at construction, or null if there are no such items.
+   * runs in O(log n)
+   */
+	@SuppressWarnings("unchecked")
+	public <A> A aggregate(long lo, long hi) {
+		int from = countBelow(lo, false);
+		int to = countBelow(hi, true);
+		return (from < to) ? (A) aggregateRange(from, to) : null;
+	}
+
+	/*
+	 * number of keys smaller than k (or equal to it, if inclusive)
+	 */
+	private int countBelow(long k, boolean inclusive) {
+		int count = 0;
+		Node<V> x = root;
+		while (null != x) {
+			if (k > x.key || (inclusive && k == x.key)) {
+				count += sizeOf(x.left) + 1;
+				x = x.right;
+			} else {
+				x = x.left;
+			}
+		}
+		return count;
+	}
+
+  /**
+   * public long[] keysToArray()
+   *
+   * Returns a sorted array which contains all keys in the map,
+   * or an empty array if the map is empty.
+   */
+	public long[] keysToArray() {
+		long[] arr = new long[size()];
+		int i = 0;
+		for (Node<V> x = firstNode(); null != x; x = successor(x)) {
+			arr[i++] = x.key;
+		}
+		return arr;
+	}
+
+}
@@ -0,0 +1,299 @@
+package WAVLTree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * MappedWAVLTree
+ *
+ * A read-only WAVL Tree served directly from a snapshot file written by
+ * WAVLTree.writeSnapshot, which open() memory-maps without deserializing
+ * anything; processes mapping the same file share its pages.
+ *
+ * The snapshot stores the items in key order, an implicit perfectly balanced
+ * search tree, so the position of a key is its rank and select is an array
+ * access. Layout (big-endian):
+ *
+ *   int magic, int version, long n
+ *   int[n]  keys, strictly increasing
+ *   long[n] end offset of each value in the value area, ~end for a null value
+ *   byte[]  the UTF-8 encoded values
+ *
+ */
+
+public class MappedWAVLTree {
+	private static final int MAGIC = 0x57415654; // "WAVT"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+
+	// a mapping is limited to 2GB, the value area is mapped in chunks of this size
+	private static final long CHUNK_BYTES = 1L << 30;
+
+	private final int n;
+	private final IntBuffer keys;
+	private final LongBuffer ends;
+	private final ByteBuffer[] valueChunks;
+
+	private MappedWAVLTree(int n, IntBuffer keys, LongBuffer ends, ByteBuffer[] valueChunks) {
+		this.n = n;
+		this.keys = keys;
+		this.ends = ends;
+		this.valueChunks = valueChunks;
+	}
+
+	/*
+	 * writes tree in the snapshot format, see WAVLTree.writeSnapshot
+	 */
+	static void write(WAVLTree tree, Path path) throws IOException {
+		int n = tree.size();
+		try (OutputStream os = Files.newOutputStream(path);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(n);
+
+			WAVLTree.Cursor c = tree.cursor();
+			for (boolean ok = c.first(); ok; ok = c.next()) {
+				out.writeInt(c.getKey());
+			}
+
+			long end = 0;
+			for (boolean ok = c.first(); ok; ok = c.next()) {
+				String v = c.getValue();
+				if (null == v) {
+					out.writeLong(~end);
+				} else {
+					end += v.getBytes(StandardCharsets.UTF_8).length;
+					out.writeLong(end);
+				}
+			}
+
+			for (boolean ok = c.first(); ok; ok = c.next()) {
+				String v = c.getValue();
+				if (null != v) {
+					out.write(v.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+	}
+
+  /**
+   * public static MappedWAVLTree open(Path path)
+   *
+   * Maps a snapshot file written by WAVLTree.writeSnapshot read-only, in O(1).
+   * Throws IOException if the file is not a snapshot.
+   */
+	public static MappedWAVLTree open(Path path) throws IOException {
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			long fileSize = ch.size();
+			if (fileSize < HEADER_BYTES) {
+				throw new IOException("not a WAVLTree snapshot: " + path);
+			}
+
+			ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			long count = header.getLong(8);
+			if (MAGIC != header.getInt(0) || VERSION != header.getInt(4)
+					|| 0 > count || count > Integer.MAX_VALUE / Long.BYTES) {
+				throw new IOException("not a WAVLTree snapshot: " + path);
+			}
+			int n = (int) count;
+
+			long keysAt = HEADER_BYTES;
+			long endsAt = keysAt + (long) n * Integer.BYTES;
+			long valuesAt = endsAt + (long) n * Long.BYTES;
+			if (fileSize < valuesAt) {
+				throw new IOException("truncated WAVLTree snapshot: " + path);
+			}
+
+			IntBuffer keys = ch.map(FileChannel.MapMode.READ_ONLY, keysAt, endsAt - keysAt).asIntBuffer();
+			LongBuffer ends = ch.map(FileChannel.MapMode.READ_ONLY, endsAt, valuesAt - endsAt).asLongBuffer();
+
+			long valueBytes = fileSize - valuesAt;
+			ByteBuffer[] chunks = new ByteBuffer[(int) ((valueBytes + CHUNK_BYTES - 1) / CHUNK_BYTES)];
+			for (int j = 0; j < chunks.length; j++) {
+				long from = j * CHUNK_BYTES;
+				chunks[j] = ch.map(FileChannel.MapMode.READ_ONLY, valuesAt + from,
+						Math.min(CHUNK_BYTES, valueBytes - from));
+			}
+
+			// the mappings stay valid after the channel is closed
+			return new MappedWAVLTree(n, keys, ends, chunks);
+		}
+	}
+
+  /**
+   * public boolean empty()
+   *
+   * returns true if and only if the tree is empty
+   *
+   */
+	public boolean empty() {
+		return 0 == n;
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of items in the tree.
+    */
+	public int size() {
+		return n;
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists in the tree
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		int i = countBelow(k, false);
+		return (i < n && keys.get(i) == k) ? valueAt(i) : null;
+	}
+
+   /**
+    * public String select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0
+    * (returns "-1" if i is out of range), as WAVLTree.select does.
+    */
+	public String select(int i) {
+		if (0 > i || i >= n) {
+			return "-1";
+		}
+		return valueAt(i);
+	}
+
+   /**
+    * public String min()
+    *
+    * Returns the info of the item with the smallest key in the tree,
+    * or null if the tree is empty
+    */
+	public String min() {
+		return (0 == n) ? null : valueAt(0);
+	}
+
+   /**
+    * public String max()
+    *
+    * Returns the info of the item with the largest key in the tree,
+    * or null if the tree is empty
+    */
+	public String max() {
+		return (0 == n) ? null : valueAt(n - 1);
+	}
+
+  /**
+   * public int rank(int k)
+   *
+   * Returns the number of keys in the tree smaller than k.
+   */
+	public int rank(int k) {
+		return countBelow(k, false);
+	}
+
+  /**
+   * public int countInRange(int lo, int hi)
+   *
+   * Returns the number of keys k in the tree with lo <= k <= hi.
+   */
+	public int countInRange(int lo, int hi) {
+		if (lo > hi) {
+			return 0;
+		}
+		return countBelow(hi, true) - countBelow(lo, false);
+	}
+
+  /**
+   * public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer)
+   *
+   * Passes every item with lo <= key <= hi to the consumer in increasing key order.
+   */
+	public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer) {
+		if (lo > hi) {
+			return;
+		}
+		for (int i = countBelow(lo, false); i < n && keys.get(i) <= hi; i++) {
+			consumer.accept(keys.get(i), valueAt(i));
+		}
+	}
+
+  /**
+   * public int[] keysToArray()
+   *
+   * Returns a sorted array which contains all keys in the tree,
+   * or an empty array if the tree is empty.
+   */
+	public int[] keysToArray() {
+		int[] arr = new int[n];
+		keys.get(0, arr);
+		return arr;
+	}
+
+  /**
+   * public WAVLTree toWAVLTree()
+   *
+   * Loads the snapshot into a new mutable WAVLTree in O(n), without rebalancing.
+   */
+	public WAVLTree toWAVLTree() {
+		String[] values = new String[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = valueAt(i);
+		}
+		return WAVLTree.fromSorted(keysToArray(), values);
+	}
+
+	/*
+	 * number of keys smaller than k (or equal to it, if inclusive), by binary search
+	 */
+	private int countBelow(int k, boolean inclusive) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int key = keys.get(mid);
+			if (key < k || (inclusive && key == k)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private String valueAt(int i) {
+		long end = ends.get(i);
+		if (0 > end) {
+			return null;
+		}
+		long start = (0 == i) ? 0 : ends.get(i - 1);
+		if (0 > start) {
+			start = ~start;
+		}
+
+		byte[] bytes = new byte[(int) (end - start)];
+		int done = 0;
+		while (done < bytes.length) {
+			long at = start + done;
+			ByteBuffer chunk = valueChunks[(int) (at / CHUNK_BYTES)];
+			int offset = (int) (at % CHUNK_BYTES);
+			int len = Math.min(bytes.length - done, chunk.capacity() - offset);
+			chunk.get(offset, bytes, done, len);
+			done += len;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
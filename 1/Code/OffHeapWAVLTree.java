@@ -0,0 +1,631 @@
+package WAVLTree;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ *
+ * OffHeapWAVLTree
+ *
+ * A WAVL Tree with distinct integer keys and info whose nodes and info live
+ * outside the Java heap, in direct ByteBuffer chunks, so the GC sees a few
+ * buffers however large the tree is. The memory is released by close().
+ *
+ * A node is a 32 byte record addressed by a 32-bit index, children and
+ * parents are indices as well (NIL for a missing node), and the slots of
+ * deleted nodes are recycled through a free list, as in CompactWAVLTree.
+ * Info is stored UTF-8 encoded in power-of-two blocks of a second arena,
+ * recycled through one free list per block size.
+ *
+ * insert, delete, search and select have the same semantics and return
+ * values as in WAVLTree. Direct memory is limited by -XX:MaxDirectMemorySize.
+ *
+ */
+
+public class OffHeapWAVLTree implements AutoCloseable {
+	private static final int NIL = -1;
+
+	// node record layout
+	private static final int KEY = 0;
+	private static final int LEFT = 4;
+	private static final int RIGHT = 8;
+	private static final int PARENT = 12; // also links the free list
+	private static final int SIZE = 16;
+	private static final int RANK = 20;
+	private static final int VALUE = 24;  // long reference into the value arena, -1 for null
+	private static final int NODE_SHIFT = 5;
+
+	// chunk sizes, the last chunk of an arena doubles until it reaches its full size
+	private static final int NODE_CHUNK_SHIFT = 22;
+	private static final int NODE_CHUNK_MASK = (1 << NODE_CHUNK_SHIFT) - 1;
+	private static final int VALUE_CHUNK_SHIFT = 27;
+	private static final long VALUE_CHUNK_MASK = (1L << VALUE_CHUNK_SHIFT) - 1;
+	private static final int FIRST_CHUNK_BYTES = 1 << 12;
+
+	// value blocks are 2^c bytes for MIN_CLASS <= c <= VALUE_CHUNK_SHIFT: an int length and the bytes
+	private static final int MIN_CLASS = 4;
+
+	private ByteBuffer[] nodes;
+	private ByteBuffer[] values;
+
+	private int root;
+	private int freeHead;  // first recycled node, NIL if none
+	private int used;      // nodes ever handed out (high water mark)
+
+	private long valueTop; // next unused byte of the value arena
+	private final long[] freeBlocks = new long[VALUE_CHUNK_SHIFT + 1]; // per block size, -1 if none
+
+	private final IndexedWAVLRebalancer balancer = new IndexedWAVLRebalancer(new IndexedWAVLRebalancer.Nodes() {
+		@Override
+		public int left(int x) {
+			return OffHeapWAVLTree.this.left(x);
+		}
+
+		@Override
+		public int right(int x) {
+			return OffHeapWAVLTree.this.right(x);
+		}
+
+		@Override
+		public int parent(int x) {
+			return OffHeapWAVLTree.this.parent(x);
+		}
+
+		@Override
+		public int rank(int x) {
+			return OffHeapWAVLTree.this.rank(x);
+		}
+
+		@Override
+		public void setLeft(int x, int c) {
+			set(x, LEFT, c);
+		}
+
+		@Override
+		public void setRight(int x, int c) {
+			set(x, RIGHT, c);
+		}
+
+		@Override
+		public void setParent(int x, int p) {
+			set(x, PARENT, p);
+		}
+
+		@Override
+		public void setRank(int x, int r) {
+			set(x, RANK, r);
+		}
+
+		@Override
+		public void setRoot(int x) {
+			root = x;
+		}
+
+		@Override
+		public void updateSize(int x) {
+			set(x, SIZE, sizeOf(OffHeapWAVLTree.this.left(x)) + sizeOf(OffHeapWAVLTree.this.right(x)) + 1);
+		}
+	}, NIL);
+
+	public OffHeapWAVLTree() {
+		nodes = new ByteBuffer[] { allocate(FIRST_CHUNK_BYTES) };
+		values = new ByteBuffer[] { allocate(FIRST_CHUNK_BYTES) };
+		root = NIL;
+		freeHead = NIL;
+		used = 0;
+		valueTop = 0;
+		Arrays.fill(freeBlocks, -1);
+	}
+
+  /**
+   * public boolean empty()
+   *
+   * returns true if and only if the tree is empty
+   *
+   */
+	public boolean empty() {
+		checkOpen();
+		return (NIL == root);
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists in the tree
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		checkOpen();
+		int x = findNode(k);
+		return (NIL == x) ? null : info(x);
+	}
+
+  /**
+   * public int insert(int k, String i)
+   *
+   * inserts an item with key k and info i to the WAVL tree.
+   * the tree must remain valid (keep its invariants).
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+   * returns -1 if an item with key k already exists in the tree.
+   */
+	public int insert(int k, String i) {
+		checkOpen();
+		if (NIL == root) {
+			root = allocateNode(k, i);
+			return 0;
+		}
+
+		// find the parent of the new node
+		int y = root;
+		while (true) {
+			if (key(y) == k) {
+				return -1;
+			}
+			int next = (k < key(y)) ? left(y) : right(y);
+			if (NIL == next) {
+				break;
+			}
+			y = next;
+		}
+
+		int z = allocateNode(k, i);
+		set(z, PARENT, y);
+		if (k < key(y)) {
+			set(y, LEFT, z);
+		} else {
+			set(y, RIGHT, z);
+		}
+
+		for (int p = y; NIL != p; p = parent(p)) {
+			set(p, SIZE, size(p) + 1);
+		}
+
+		return balancer.rebalanceInsert(z);
+	}
+
+  /**
+   * public int delete(int k)
+   *
+   * deletes an item with key k from the binary tree, if it is there;
+   * the tree must remain valid (keep its invariants).
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+   * returns -1 if an item with key k was not found in the tree.
+   */
+	public int delete(int k) {
+		checkOpen();
+		int z = findNode(k);
+		if (NIL == z) {
+			return -1;
+		}
+		long dead = getLong(z, VALUE);
+
+		// a binary node takes over its successor's item, the successor is removed instead
+		if (NIL != left(z) && NIL != right(z)) {
+			int s = right(z);
+			while (NIL != left(s)) {
+				s = left(s);
+			}
+			set(z, KEY, key(s));
+			setLong(z, VALUE, getLong(s, VALUE));
+			z = s;
+		}
+
+		// z has at most one child
+		int c = (NIL != left(z)) ? left(z) : right(z);
+		int p = parent(z);
+
+		if (NIL != c) {
+			set(c, PARENT, p);
+		}
+		if (NIL == p) {
+			root = c;
+		} else if (left(p) == z) {
+			set(p, LEFT, c);
+		} else {
+			set(p, RIGHT, c);
+		}
+
+		for (int q = p; NIL != q; q = parent(q)) {
+			set(q, SIZE, size(q) - 1);
+		}
+
+		releaseNode(z);
+		freeInfo(dead);
+
+		return balancer.rebalanceDelete(c, p);
+	}
+
+   /**
+    * public String select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0
+    * (returns "-1" if i is out of range), as WAVLTree.select does.
+    */
+	public String select(int i) {
+		checkOpen();
+		if (0 > i || i >= sizeOf(root)) {
+			return "-1";
+		}
+
+		int x = root;
+		while (true) {
+			int r = sizeOf(left(x));
+			if (i == r) {
+				return info(x);
+			} else if (i < r) {
+				x = left(x);
+			} else {
+				i -= r + 1;
+				x = right(x);
+			}
+		}
+	}
+
+   /**
+    * public String min()
+    *
+    * Returns the info of the item with the smallest key in the tree,
+    * or null if the tree is empty
+    */
+	public String min() {
+		checkOpen();
+		int x = first();
+		return (NIL == x) ? null : info(x);
+	}
+
+   /**
+    * public String max()
+    *
+    * Returns the info of the item with the largest key in the tree,
+    * or null if the tree is empty
+    */
+	public String max() {
+		checkOpen();
+		int x = root;
+		if (NIL == x) {
+			return null;
+		}
+		while (NIL != right(x)) {
+			x = right(x);
+		}
+		return info(x);
+	}
+
+  /**
+   * public int[] keysToArray()
+   *
+   * Returns a sorted array which contains all keys in the tree,
+   * or an empty array if the tree is empty.
+   */
+	public int[] keysToArray() {
+		checkOpen();
+		int[] arr = new int[sizeOf(root)];
+		int i = 0;
+		for (int x = first(); NIL != x; x = successor(x)) {
+			arr[i++] = key(x);
+		}
+		return arr;
+	}
+
+  /**
+   * public String[] infoToArray()
+   *
+   * Returns an array which contains all info in the tree,
+   * sorted by their respective keys,
+   * or an empty array if the tree is empty.
+   */
+	public String[] infoToArray() {
+		checkOpen();
+		String[] arr = new String[sizeOf(root)];
+		int i = 0;
+		for (int x = first(); NIL != x; x = successor(x)) {
+			arr[i++] = info(x);
+		}
+		return arr;
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of nodes in the tree.
+    */
+	public int size() {
+		checkOpen();
+		return sizeOf(root);
+	}
+
+   /**
+    * public long offHeapBytes()
+    *
+    * Returns the number of bytes of direct memory the tree holds.
+    */
+	public long offHeapBytes() {
+		checkOpen();
+		long bytes = 0;
+		for (ByteBuffer b : nodes) {
+			bytes += b.capacity();
+		}
+		for (ByteBuffer b : values) {
+			bytes += b.capacity();
+		}
+		return bytes;
+	}
+
+  /**
+   * public void close()
+   *
+   * Frees the memory of the tree, which can not be used afterwards.
+   */
+	@Override
+	public void close() {
+		if (null == nodes) {
+			return;
+		}
+		for (ByteBuffer b : nodes) {
+			free(b);
+		}
+		for (ByteBuffer b : values) {
+			free(b);
+		}
+		nodes = null;
+		values = null;
+		root = NIL;
+	}
+
+	private void checkOpen() {
+		if (null == nodes) {
+			throw new IllegalStateException("the tree is closed");
+		}
+	}
+
+	private int first() {
+		int x = root;
+		if (NIL != x) {
+			while (NIL != left(x)) {
+				x = left(x);
+			}
+		}
+		return x;
+	}
+
+	private int successor(int x) {
+		if (NIL != right(x)) {
+			x = right(x);
+			while (NIL != left(x)) {
+				x = left(x);
+			}
+			return x;
+		}
+
+		int y = parent(x);
+		while (NIL != y && right(y) == x) {
+			x = y;
+			y = parent(x);
+		}
+		return y;
+	}
+
+	private int findNode(int k) {
+		int x = root;
+		while (NIL != x && key(x) != k) {
+			x = (k < key(x)) ? left(x) : right(x);
+		}
+		return x;
+	}
+
+	// node fields
+
+	private int get(int x, int field) {
+		return nodes[x >>> NODE_CHUNK_SHIFT].getInt(((x & NODE_CHUNK_MASK) << NODE_SHIFT) + field);
+	}
+
+	private void set(int x, int field, int v) {
+		nodes[x >>> NODE_CHUNK_SHIFT].putInt(((x & NODE_CHUNK_MASK) << NODE_SHIFT) + field, v);
+	}
+
+	private long getLong(int x, int field) {
+		return nodes[x >>> NODE_CHUNK_SHIFT].getLong(((x & NODE_CHUNK_MASK) << NODE_SHIFT) + field);
+	}
+
+	private void setLong(int x, int field, long v) {
+		nodes[x >>> NODE_CHUNK_SHIFT].putLong(((x & NODE_CHUNK_MASK) << NODE_SHIFT) + field, v);
+	}
+
+	private int key(int x) {
+		return get(x, KEY);
+	}
+
+	private int left(int x) {
+		return get(x, LEFT);
+	}
+
+	private int right(int x) {
+		return get(x, RIGHT);
+	}
+
+	private int parent(int x) {
+		return get(x, PARENT);
+	}
+
+	private int rank(int x) {
+		return get(x, RANK);
+	}
+
+	private int size(int x) {
+		return get(x, SIZE);
+	}
+
+	private int sizeOf(int x) {
+		return (NIL == x) ? 0 : size(x);
+	}
+
+	private String info(int x) {
+		return readInfo(getLong(x, VALUE));
+	}
+
+	// node slots
+
+	private int allocateNode(int k, String i) {
+		int x;
+		if (NIL != freeHead) {
+			x = freeHead;
+			freeHead = parent(x);
+		} else {
+			if (Integer.MAX_VALUE == used) {
+				throw new IllegalStateException("the tree is full");
+			}
+			x = used++;
+			ensureNodeCapacity(x);
+		}
+
+		set(x, KEY, k);
+		set(x, LEFT, NIL);
+		set(x, RIGHT, NIL);
+		set(x, PARENT, NIL);
+		set(x, SIZE, 1);
+		set(x, RANK, 0);
+		setLong(x, VALUE, writeInfo(i));
+		return x;
+	}
+
+	private void releaseNode(int x) {
+		set(x, PARENT, freeHead);
+		freeHead = x;
+	}
+
+	private void ensureNodeCapacity(int x) {
+		int chunk = x >>> NODE_CHUNK_SHIFT;
+		long end = (long) ((x & NODE_CHUNK_MASK) + 1) << NODE_SHIFT;
+		nodes = ensureCapacity(nodes, chunk, end, 1 << (NODE_CHUNK_SHIFT + NODE_SHIFT));
+	}
+
+	// the value arena
+
+	private String readInfo(long ref) {
+		if (0 > ref) {
+			return null;
+		}
+		ByteBuffer chunk = values[(int) (ref >>> VALUE_CHUNK_SHIFT)];
+		int at = (int) (ref & VALUE_CHUNK_MASK);
+		byte[] bytes = new byte[chunk.getInt(at)];
+		chunk.get(at + Integer.BYTES, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private long writeInfo(String i) {
+		if (null == i) {
+			return -1;
+		}
+		byte[] bytes = i.getBytes(StandardCharsets.UTF_8);
+		int c = blockClass(Integer.BYTES + bytes.length);
+
+		long ref = freeBlocks[c];
+		if (-1 != ref) {
+			freeBlocks[c] = values[(int) (ref >>> VALUE_CHUNK_SHIFT)].getLong((int) (ref & VALUE_CHUNK_MASK));
+		} else {
+			long block = 1L << c;
+			if ((valueTop & VALUE_CHUNK_MASK) + block > (1L << VALUE_CHUNK_SHIFT)) {
+				// blocks do not straddle chunks, skip the rest of this one
+				valueTop = (valueTop | VALUE_CHUNK_MASK) + 1;
+			}
+			ref = valueTop;
+			valueTop += block;
+			values = ensureCapacity(values, (int) (ref >>> VALUE_CHUNK_SHIFT),
+					(ref & VALUE_CHUNK_MASK) + block, 1 << VALUE_CHUNK_SHIFT);
+		}
+
+		ByteBuffer chunk = values[(int) (ref >>> VALUE_CHUNK_SHIFT)];
+		int at = (int) (ref & VALUE_CHUNK_MASK);
+		chunk.putInt(at, bytes.length);
+		chunk.put(at + Integer.BYTES, bytes);
+		return ref;
+	}
+
+	private void freeInfo(long ref) {
+		if (0 > ref) {
+			return;
+		}
+		ByteBuffer chunk = values[(int) (ref >>> VALUE_CHUNK_SHIFT)];
+		int at = (int) (ref & VALUE_CHUNK_MASK);
+		int c = blockClass(Integer.BYTES + chunk.getInt(at));
+		chunk.putLong(at, freeBlocks[c]);
+		freeBlocks[c] = ref;
+	}
+
+	// the smallest c >= MIN_CLASS with 2^c >= bytes
+	private static int blockClass(int bytes) {
+		int c = Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(bytes - 1));
+		if (c > VALUE_CHUNK_SHIFT) {
+			throw new IllegalArgumentException("info of " + bytes + " bytes is too large");
+		}
+		return c;
+	}
+
+	// chunks
+
+	/*
+	 * makes chunk j of arena at least end bytes long, growing the last chunk
+	 * by doubling up to full bytes and appending new chunks after it
+	 */
+	private static ByteBuffer[] ensureCapacity(ByteBuffer[] arena, int j, long end, int full) {
+		if (j == arena.length) {
+			arena = Arrays.copyOf(arena, j + 1);
+			arena[j] = allocate(Math.min(full, FIRST_CHUNK_BYTES));
+		}
+		ByteBuffer chunk = arena[j];
+		if (end > chunk.capacity()) {
+			long capacity = chunk.capacity();
+			while (capacity < end) {
+				capacity <<= 1;
+			}
+			ByteBuffer grown = allocate((int) Math.min(full, capacity));
+			grown.put(0, chunk, 0, chunk.capacity());
+			free(chunk);
+			arena[j] = grown;
+		}
+		return arena;
+	}
+
+	private static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/*
+	 * frees a direct buffer now, through sun.misc.Unsafe.invokeCleaner where it is
+	 * available, and leaves it to the GC otherwise
+	 */
+	private static void free(ByteBuffer b) {
+		if (null != INVOKE_CLEANER) {
+			try {
+				INVOKE_CLEANER.invoke(UNSAFE, b);
+			} catch (ReflectiveOperationException e) {
+				// left to the GC
+			}
+		}
+	}
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+}
@@ -0,0 +1,932 @@
+package WAVLTree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ *
+ * PagedWAVLTree
+ *
+ * A WAVL Tree with distinct integer keys and info that lives in a file, for
+ * indexes larger than memory. Nodes are 32 byte records in 4KB pages, and
+ * pages are read and written through a buffer pool of a fixed memory budget
+ * that evicts by CLOCK and writes dirty pages back on eviction. A node is
+ * addressed by a 32-bit id, its page number and slot, and info is stored
+ * UTF-8 encoded in a companion file, path + ".info".
+ *
+ * Subtrees are grouped into pages only by fromSorted, which lays every page
+ * out as a breadth-first block of one subtree, or as several small subtrees
+ * whole, so right after it a root-to-leaf walk crosses about log(n) / 7 pages.
+ * insert only places a new node in the page of its parent while that page has
+ * room, and in a shared fill page after that, and rotations do not move nodes,
+ * so incremental updates let the locality decay towards a page per level;
+ * rebuilding with fromSorted restores it.
+ *
+ * insert, delete, search and select have the same semantics and return
+ * values as in WAVLTree. An I/O error during an operation is thrown as an
+ * UncheckedIOException. The files are consistent once flush() or close()
+ * returns, and not in between.
+ *
+ */
+
+public class PagedWAVLTree implements AutoCloseable {
+	private static final int MAGIC = 0x57415650; // "WAVP"
+	private static final int VERSION = 1;
+
+	private static final int PAGE_SIZE = 4096;
+	private static final int NODE_SHIFT = 5;
+	private static final int SLOT_BITS = 7;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int MAX_PAGES = 1 << (31 - SLOT_BITS);
+
+	// page 0 is the file header, so id 0 (page 0, slot 0) is never a node
+	private static final int NIL = 0;
+
+	// node record layout
+	private static final int KEY = 0;
+	private static final int LEFT = 4;
+	private static final int RIGHT = 8;
+	private static final int PARENT = 12; // also links free slots
+	private static final int SIZE = 16;
+	private static final int RANK = 20;
+	private static final int VALUE = 24;  // long offset into the info file, -1 for null
+
+	// slot 0 of every node page is its header, a fresh page is all zeros
+	private static final int USED = 0;       // nodes on the page
+	private static final int FREE_SLOT = 4;  // first free slot id, NIL if none
+	private static final int BUMP = 8;       // slots 1..BUMP have been handed out
+	private static final int NEXT_PAGE = 12; // links empty pages
+
+	// info blocks are 2^c bytes for MIN_CLASS <= c <= MAX_CLASS: an int length and the bytes
+	private static final int MIN_CLASS = 4;
+	private static final int MAX_CLASS = 30;
+
+	private final FileChannel file;
+	private final FileChannel infoFile;
+
+	// buffer pool
+	private final ByteBuffer[] frames;
+	private final int[] framePage;
+	private final boolean[] dirty;
+	private final boolean[] referenced;
+	private int[] pageFrame;  // the frame of each page, -1 if it is not resident
+	private int framesUsed;
+	private int hand;
+	private int lastPage;  // the page of the last access, resolved without a lookup
+	private int lastFrame;
+	private long hits;
+	private long misses;
+
+	// file header
+	private int root;
+	private int size;
+	private int pageCount;    // including the header page
+	private int freePageHead; // first empty page, NIL if none
+	private int fillPage;     // page for nodes whose parent's page is full, NIL if none
+	private long infoTop;
+	private final long[] freeBlocks = new long[MAX_CLASS + 1]; // per block size, -1 if none
+
+	private final IndexedWAVLRebalancer balancer = new IndexedWAVLRebalancer(new IndexedWAVLRebalancer.Nodes() {
+		@Override
+		public int left(int x) {
+			return PagedWAVLTree.this.left(x);
+		}
+
+		@Override
+		public int right(int x) {
+			return PagedWAVLTree.this.right(x);
+		}
+
+		@Override
+		public int parent(int x) {
+			return PagedWAVLTree.this.parent(x);
+		}
+
+		@Override
+		public int rank(int x) {
+			return PagedWAVLTree.this.rank(x);
+		}
+
+		@Override
+		public void setLeft(int x, int c) {
+			set(x, LEFT, c);
+		}
+
+		@Override
+		public void setRight(int x, int c) {
+			set(x, RIGHT, c);
+		}
+
+		@Override
+		public void setParent(int x, int p) {
+			set(x, PARENT, p);
+		}
+
+		@Override
+		public void setRank(int x, int r) {
+			set(x, RANK, r);
+		}
+
+		@Override
+		public void setRoot(int x) {
+			root = x;
+		}
+
+		@Override
+		public void updateSize(int x) {
+			set(x, SIZE, sizeOf(PagedWAVLTree.this.left(x)) + sizeOf(PagedWAVLTree.this.right(x)) + 1);
+		}
+	}, NIL);
+
+	private PagedWAVLTree(FileChannel file, FileChannel infoFile, long poolBytes) {
+		long poolPages = poolBytes / PAGE_SIZE;
+		if (poolPages < 1) {
+			throw new IllegalArgumentException("poolBytes must hold at least one page of " + PAGE_SIZE + " bytes");
+		}
+		int n = (int) Math.min(poolPages, Integer.MAX_VALUE - 8);
+		this.file = file;
+		this.infoFile = infoFile;
+		this.frames = new ByteBuffer[n];
+		this.framePage = new int[n];
+		this.dirty = new boolean[n];
+		this.referenced = new boolean[n];
+		this.pageFrame = new int[64];
+		Arrays.fill(this.pageFrame, -1);
+		this.lastPage = -1;
+	}
+
+  /**
+   * public static PagedWAVLTree create(Path path, long poolBytes)
+   *
+   * creates an empty tree in the file at path, replacing any file there,
+   * with a buffer pool of poolBytes.
+   */
+	public static PagedWAVLTree create(Path path, long poolBytes) throws IOException {
+		PagedWAVLTree t = openFiles(path, poolBytes, true);
+		t.root = NIL;
+		t.size = 0;
+		t.pageCount = 1;
+		t.freePageHead = NIL;
+		t.fillPage = NIL;
+		t.infoTop = 0;
+		Arrays.fill(t.freeBlocks, -1);
+		t.writeHeader();
+		return t;
+	}
+
+  /**
+   * public static PagedWAVLTree open(Path path, long poolBytes)
+   *
+   * opens the tree in the file at path, with a buffer pool of poolBytes.
+   */
+	public static PagedWAVLTree open(Path path, long poolBytes) throws IOException {
+		PagedWAVLTree t = openFiles(path, poolBytes, false);
+		try {
+			ByteBuffer h = ByteBuffer.allocate(PAGE_SIZE);
+			if (PAGE_SIZE != readFully(t.file, h, 0) || MAGIC != h.getInt(0) || VERSION != h.getInt(4)) {
+				throw new IOException("not a PagedWAVLTree file: " + path);
+			}
+			h.position(8);
+			t.root = h.getInt();
+			t.size = h.getInt();
+			t.pageCount = h.getInt();
+			t.freePageHead = h.getInt();
+			t.fillPage = h.getInt();
+			t.infoTop = h.getLong();
+			for (int c = 0; c <= MAX_CLASS; c++) {
+				t.freeBlocks[c] = h.getLong();
+			}
+		} catch (IOException | RuntimeException e) {
+			t.file.close();
+			t.infoFile.close();
+			throw e;
+		}
+		return t;
+	}
+
+  /**
+   * public static PagedWAVLTree fromSorted(Path path, long poolBytes, int[] keys, String[] values)
+   *
+   * creates a tree of the items keys[j] with info values[j] in the file at path,
+   * in O(n) and without any rebalancing operations, with every page holding
+   * a breadth-first block of one subtree or several small subtrees.
+   * precondition: keys are in strictly increasing order
+   */
+	public static PagedWAVLTree fromSorted(Path path, long poolBytes, int[] keys, String[] values) throws IOException {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException("keys and values differ in length");
+		}
+		for (int j = 1; j < keys.length; j++) {
+			if (keys[j - 1] >= keys[j]) {
+				throw new IllegalArgumentException("keys are not strictly increasing: " + keys[j - 1] + ", " + keys[j]);
+			}
+		}
+
+		PagedWAVLTree t = create(path, poolBytes);
+		t.size = keys.length;
+
+		// subtrees left over when a page fills up start pages of their own: {lo, hi, parent, isLeft}
+		ArrayDeque<int[]> pageRoots = new ArrayDeque<>();
+		ArrayDeque<int[]> block = new ArrayDeque<>();
+		if (0 < keys.length) {
+			pageRoots.add(new int[] { 0, keys.length - 1, NIL, 0 });
+		}
+
+		while (!pageRoots.isEmpty()) {
+			int page = t.newPage();
+			int[] first = pageRoots.poll();
+			block.add(first);
+			// small subtrees that fit whole share the page
+			int room = SLOTS - 1 - (first[1] - first[0] + 1);
+			for (int[] next = pageRoots.peek(); null != next && next[1] - next[0] + 1 <= room; next = pageRoots.peek()) {
+				room -= next[1] - next[0] + 1;
+				block.add(pageRoots.poll());
+			}
+
+			while (!block.isEmpty()) {
+				if (!t.hasRoom(page)) {
+					pageRoots.addAll(block);
+					block.clear();
+					break;
+				}
+				int[] s = block.poll();
+				int lo = s[0];
+				int hi = s[1];
+				int mid = (lo + hi) >>> 1;
+				int x = t.allocateNode(page, keys[mid], values[mid]);
+
+				// a perfectly balanced subtree of n nodes has height floor(log n)
+				t.set(x, SIZE, hi - lo + 1);
+				t.set(x, RANK, 31 - Integer.numberOfLeadingZeros(hi - lo + 1));
+				t.set(x, PARENT, s[2]);
+				if (NIL == s[2]) {
+					t.root = x;
+				} else {
+					t.set(s[2], (1 == s[3]) ? LEFT : RIGHT, x);
+				}
+
+				if (lo < mid) {
+					block.add(new int[] { lo, mid - 1, x, 1 });
+				}
+				if (mid < hi) {
+					block.add(new int[] { mid + 1, hi, x, 0 });
+				}
+			}
+			t.fillPage = page;
+		}
+
+		t.flush();
+		return t;
+	}
+
+	private static PagedWAVLTree openFiles(Path path, long poolBytes, boolean create) throws IOException {
+		StandardOpenOption[] options = create
+				? new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING }
+				: new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE };
+		FileChannel file = FileChannel.open(path, options);
+		FileChannel infoFile;
+		try {
+			infoFile = FileChannel.open(path.resolveSibling(path.getFileName() + ".info"), options);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		try {
+			return new PagedWAVLTree(file, infoFile, poolBytes);
+		} catch (RuntimeException e) {
+			file.close();
+			infoFile.close();
+			throw e;
+		}
+	}
+
+  /**
+   * public boolean empty()
+   *
+   * returns true if and only if the tree is empty
+   *
+   */
+	public boolean empty() {
+		return (NIL == root);
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of nodes in the tree.
+    */
+	public int size() {
+		return size;
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists in the tree
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		int x = findNode(k);
+		return (NIL == x) ? null : info(x);
+	}
+
+  /**
+   * public int insert(int k, String i)
+   *
+   * inserts an item with key k and info i to the WAVL tree.
+   * the tree must remain valid (keep its invariants).
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+   * returns -1 if an item with key k already exists in the tree.
+   */
+	public int insert(int k, String i) {
+		if (NIL == root) {
+			root = allocateNode(nodePage(NIL), k, i);
+			size++;
+			return 0;
+		}
+
+		// find the parent of the new node
+		int y = root;
+		while (true) {
+			if (key(y) == k) {
+				return -1;
+			}
+			int next = (k < key(y)) ? left(y) : right(y);
+			if (NIL == next) {
+				break;
+			}
+			y = next;
+		}
+
+		int z = allocateNode(nodePage(y), k, i);
+		set(z, PARENT, y);
+		if (k < key(y)) {
+			set(y, LEFT, z);
+		} else {
+			set(y, RIGHT, z);
+		}
+		size++;
+
+		for (int p = y; NIL != p; p = parent(p)) {
+			set(p, SIZE, size(p) + 1);
+		}
+
+		return balancer.rebalanceInsert(z);
+	}
+
+  /**
+   * public int delete(int k)
+   *
+   * deletes an item with key k from the binary tree, if it is there;
+   * the tree must remain valid (keep its invariants).
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+   * returns -1 if an item with key k was not found in the tree.
+   */
+	public int delete(int k) {
+		int z = findNode(k);
+		if (NIL == z) {
+			return -1;
+		}
+		long dead = getLong(z, VALUE);
+
+		// a binary node takes over its successor's item, the successor is removed instead
+		if (NIL != left(z) && NIL != right(z)) {
+			int s = right(z);
+			while (NIL != left(s)) {
+				s = left(s);
+			}
+			set(z, KEY, key(s));
+			setLong(z, VALUE, getLong(s, VALUE));
+			z = s;
+		}
+
+		// z has at most one child
+		int c = (NIL != left(z)) ? left(z) : right(z);
+		int p = parent(z);
+
+		if (NIL != c) {
+			set(c, PARENT, p);
+		}
+		if (NIL == p) {
+			root = c;
+		} else if (left(p) == z) {
+			set(p, LEFT, c);
+		} else {
+			set(p, RIGHT, c);
+		}
+		size--;
+
+		for (int q = p; NIL != q; q = parent(q)) {
+			set(q, SIZE, size(q) - 1);
+		}
+
+		releaseNode(z);
+		freeInfo(dead);
+
+		return balancer.rebalanceDelete(c, p);
+	}
+
+   /**
+    * public String select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0
+    * (returns "-1" if i is out of range), as WAVLTree.select does.
+    */
+	public String select(int i) {
+		if (0 > i || i >= size) {
+			return "-1";
+		}
+
+		int x = root;
+		while (true) {
+			int r = sizeOf(left(x));
+			if (i == r) {
+				return info(x);
+			} else if (i < r) {
+				x = left(x);
+			} else {
+				i -= r + 1;
+				x = right(x);
+			}
+		}
+	}
+
+   /**
+    * public String min()
+    *
+    * Returns the info of the item with the smallest key in the tree,
+    * or null if the tree is empty
+    */
+	public String min() {
+		int x = root;
+		if (NIL == x) {
+			return null;
+		}
+		while (NIL != left(x)) {
+			x = left(x);
+		}
+		return info(x);
+	}
+
+   /**
+    * public String max()
+    *
+    * Returns the info of the item with the largest key in the tree,
+    * or null if the tree is empty
+    */
+	public String max() {
+		int x = root;
+		if (NIL == x) {
+			return null;
+		}
+		while (NIL != right(x)) {
+			x = right(x);
+		}
+		return info(x);
+	}
+
+  /**
+   * public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer)
+   *
+   * Passes every item with lo <= key <= hi to the consumer in increasing key order.
+   */
+	public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer) {
+		if (lo > hi) {
+			return;
+		}
+
+		// the node of the smallest key >= lo
+		int x = NIL;
+		for (int y = root; NIL != y;) {
+			if (key(y) >= lo) {
+				x = y;
+				y = left(y);
+			} else {
+				y = right(y);
+			}
+		}
+
+		for (; NIL != x && key(x) <= hi; x = successor(x)) {
+			consumer.accept(key(x), info(x));
+		}
+	}
+
+   /**
+    * public long pageHits()
+    *
+    * Returns the number of page accesses served by the buffer pool.
+    * Consecutive accesses to the same page count once.
+    */
+	public long pageHits() {
+		return hits;
+	}
+
+   /**
+    * public long pageMisses()
+    *
+    * Returns the number of page accesses that read the page from the file.
+    */
+	public long pageMisses() {
+		return misses;
+	}
+
+   /**
+    * public int pageCount()
+    *
+    * Returns the number of pages in the file, including its header page.
+    */
+	public int pageCount() {
+		return pageCount;
+	}
+
+  /**
+   * public void flush()
+   *
+   * Writes the dirty pages and the header and forces both files to the device.
+   */
+	public void flush() throws IOException {
+		for (int f = 0; f < framesUsed; f++) {
+			if (dirty[f]) {
+				writeFully(file, frames[f], (long) framePage[f] * PAGE_SIZE);
+				dirty[f] = false;
+			}
+		}
+		writeHeader();
+		infoFile.force(false);
+		file.force(false);
+	}
+
+  /**
+   * public void close()
+   *
+   * Flushes the tree and closes its files.
+   */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			file.close();
+			infoFile.close();
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer h = ByteBuffer.allocate(PAGE_SIZE);
+		h.putInt(MAGIC);
+		h.putInt(VERSION);
+		h.putInt(root);
+		h.putInt(size);
+		h.putInt(pageCount);
+		h.putInt(freePageHead);
+		h.putInt(fillPage);
+		h.putLong(infoTop);
+		for (long b : freeBlocks) {
+			h.putLong(b);
+		}
+		writeFully(file, h, 0);
+	}
+
+	private int successor(int x) {
+		if (NIL != right(x)) {
+			x = right(x);
+			while (NIL != left(x)) {
+				x = left(x);
+			}
+			return x;
+		}
+
+		int y = parent(x);
+		while (NIL != y && right(y) == x) {
+			x = y;
+			y = parent(x);
+		}
+		return y;
+	}
+
+	private int findNode(int k) {
+		int x = root;
+		while (NIL != x && key(x) != k) {
+			x = (k < key(x)) ? left(x) : right(x);
+		}
+		return x;
+	}
+
+	// node fields
+
+	private int get(int x, int field) {
+		return frames[frame(x >>> SLOT_BITS)].getInt(((x & SLOT_MASK) << NODE_SHIFT) + field);
+	}
+
+	private void set(int x, int field, int v) {
+		int f = frame(x >>> SLOT_BITS);
+		frames[f].putInt(((x & SLOT_MASK) << NODE_SHIFT) + field, v);
+		dirty[f] = true;
+	}
+
+	private long getLong(int x, int field) {
+		return frames[frame(x >>> SLOT_BITS)].getLong(((x & SLOT_MASK) << NODE_SHIFT) + field);
+	}
+
+	private void setLong(int x, int field, long v) {
+		int f = frame(x >>> SLOT_BITS);
+		frames[f].putLong(((x & SLOT_MASK) << NODE_SHIFT) + field, v);
+		dirty[f] = true;
+	}
+
+	private int key(int x) {
+		return get(x, KEY);
+	}
+
+	private int left(int x) {
+		return get(x, LEFT);
+	}
+
+	private int right(int x) {
+		return get(x, RIGHT);
+	}
+
+	private int parent(int x) {
+		return get(x, PARENT);
+	}
+
+	private int rank(int x) {
+		return get(x, RANK);
+	}
+
+	private int size(int x) {
+		return get(x, SIZE);
+	}
+
+	private int sizeOf(int x) {
+		return (NIL == x) ? 0 : size(x);
+	}
+
+	private String info(int x) {
+		return readInfo(getLong(x, VALUE));
+	}
+
+	// node slots and pages
+
+	/*
+	 * the page for a new child of parent: the parent's page while it has room,
+	 * the fill page otherwise
+	 */
+	private int nodePage(int parent) {
+		if (NIL != parent && hasRoom(parent >>> SLOT_BITS)) {
+			return parent >>> SLOT_BITS;
+		}
+		if (NIL == fillPage || !hasRoom(fillPage)) {
+			fillPage = newPage();
+		}
+		return fillPage;
+	}
+
+	private boolean hasRoom(int page) {
+		int h = page << SLOT_BITS;
+		return NIL != get(h, FREE_SLOT) || get(h, BUMP) < SLOTS - 1;
+	}
+
+	private int newPage() {
+		if (NIL != freePageHead) {
+			int page = freePageHead;
+			freePageHead = get(page << SLOT_BITS, NEXT_PAGE);
+			set(page << SLOT_BITS, NEXT_PAGE, NIL);
+			return page;
+		}
+		if (MAX_PAGES == pageCount) {
+			throw new IllegalStateException("the tree is full");
+		}
+		return pageCount++;
+	}
+
+	// precondition: hasRoom(page)
+	private int allocateNode(int page, int k, String i) {
+		int h = page << SLOT_BITS;
+		int x = get(h, FREE_SLOT);
+		if (NIL != x) {
+			set(h, FREE_SLOT, parent(x));
+		} else {
+			int bump = get(h, BUMP) + 1;
+			set(h, BUMP, bump);
+			x = h | bump;
+		}
+		set(h, USED, get(h, USED) + 1);
+
+		set(x, KEY, k);
+		set(x, LEFT, NIL);
+		set(x, RIGHT, NIL);
+		set(x, PARENT, NIL);
+		set(x, SIZE, 1);
+		set(x, RANK, 0);
+		setLong(x, VALUE, writeInfo(i));
+		return x;
+	}
+
+	/*
+	 * frees the slot of x, a page that becomes empty goes back to the empty pages
+	 */
+	private void releaseNode(int x) {
+		int page = x >>> SLOT_BITS;
+		int h = page << SLOT_BITS;
+		set(x, PARENT, get(h, FREE_SLOT));
+		set(h, FREE_SLOT, x);
+		int used = get(h, USED) - 1;
+		set(h, USED, used);
+
+		if (0 == used && page != fillPage) {
+			set(h, FREE_SLOT, NIL);
+			set(h, BUMP, 0);
+			set(h, NEXT_PAGE, freePageHead);
+			freePageHead = page;
+		}
+	}
+
+	// buffer pool
+
+	/*
+	 * the frame holding page, read from the file on a miss
+	 */
+	private int frame(int page) {
+		if (page == lastPage) {
+			referenced[lastFrame] = true;
+			return lastFrame;
+		}
+
+		if (page >= pageFrame.length) {
+			growPageFrame(page);
+		}
+		int f = pageFrame[page];
+		if (-1 != f) {
+			hits++;
+		} else {
+			misses++;
+			f = load(page);
+		}
+		referenced[f] = true;
+		lastPage = page;
+		lastFrame = f;
+		return f;
+	}
+
+	/*
+	 * doubles the page table until it covers page, it never needs more than MAX_PAGES entries
+	 */
+	private void growPageFrame(int page) {
+		int n = pageFrame.length;
+		while (n <= page) {
+			n = Math.min(2 * n, MAX_PAGES);
+		}
+		int old = pageFrame.length;
+		pageFrame = Arrays.copyOf(pageFrame, n);
+		Arrays.fill(pageFrame, old, n, -1);
+	}
+
+	private int load(int page) {
+		int f = victim();
+		ByteBuffer b = frames[f];
+		try {
+			int n = readFully(file, b, (long) page * PAGE_SIZE);
+			// a page past the end of the file is new
+			Arrays.fill(b.array(), Math.max(n, 0), PAGE_SIZE, (byte) 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		framePage[f] = page;
+		dirty[f] = false;
+		pageFrame[page] = f;
+		return f;
+	}
+
+	/*
+	 * an unused frame, or the first frame the CLOCK hand finds unreferenced,
+	 * written back if it is dirty
+	 */
+	private int victim() {
+		if (framesUsed < frames.length) {
+			frames[framesUsed] = ByteBuffer.allocate(PAGE_SIZE);
+			return framesUsed++;
+		}
+
+		while (referenced[hand]) {
+			referenced[hand] = false;
+			hand = (hand + 1) % frames.length;
+		}
+		int f = hand;
+		hand = (hand + 1) % frames.length;
+
+		if (dirty[f]) {
+			try {
+				writeFully(file, frames[f], (long) framePage[f] * PAGE_SIZE);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		pageFrame[framePage[f]] = -1;
+		if (framePage[f] == lastPage) {
+			lastPage = -1;
+		}
+		return f;
+	}
+
+	// the info file
+
+	private String readInfo(long ref) {
+		if (0 > ref) {
+			return null;
+		}
+		try {
+			ByteBuffer len = ByteBuffer.allocate(Integer.BYTES);
+			readFully(infoFile, len, ref);
+			ByteBuffer bytes = ByteBuffer.allocate(len.getInt(0));
+			readFully(infoFile, bytes, ref + Integer.BYTES);
+			return new String(bytes.array(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private long writeInfo(String i) {
+		if (null == i) {
+			return -1;
+		}
+		byte[] bytes = i.getBytes(StandardCharsets.UTF_8);
+		int c = blockClass(Integer.BYTES + bytes.length);
+
+		try {
+			long ref = freeBlocks[c];
+			if (-1 != ref) {
+				ByteBuffer next = ByteBuffer.allocate(Long.BYTES);
+				readFully(infoFile, next, ref);
+				freeBlocks[c] = next.getLong(0);
+			} else {
+				ref = infoTop;
+				infoTop += 1L << c;
+			}
+
+			ByteBuffer block = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+			block.putInt(bytes.length).put(bytes);
+			writeFully(infoFile, block, ref);
+			return ref;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void freeInfo(long ref) {
+		if (0 > ref) {
+			return;
+		}
+		try {
+			ByteBuffer len = ByteBuffer.allocate(Integer.BYTES);
+			readFully(infoFile, len, ref);
+			int c = blockClass(Integer.BYTES + len.getInt(0));
+			ByteBuffer next = ByteBuffer.allocate(Long.BYTES);
+			next.putLong(0, freeBlocks[c]);
+			writeFully(infoFile, next, ref);
+			freeBlocks[c] = ref;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// the smallest c >= MIN_CLASS with 2^c >= bytes
+	private static int blockClass(int bytes) {
+		int c = Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(bytes - 1));
+		if (c > MAX_CLASS) {
+			throw new IllegalArgumentException("info of " + bytes + " bytes is too large");
+		}
+		return c;
+	}
+
+	/*
+	 * reads b from position on, up to the end of the file, returns the number of bytes read
+	 */
+	private static int readFully(FileChannel ch, ByteBuffer b, long position) throws IOException {
+		b.clear();
+		while (b.hasRemaining()) {
+			int n = ch.read(b, position + b.position());
+			if (-1 == n) {
+				break;
+			}
+		}
+		return b.position();
+	}
+
+	private static void writeFully(FileChannel ch, ByteBuffer b, long position) throws IOException {
+		b.clear();
+		while (b.hasRemaining()) {
+			ch.write(b, position + b.position());
+		}
+	}
+
+}
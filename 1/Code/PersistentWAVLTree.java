@@ -0,0 +1,452 @@
+package WAVLTree;
+
+/**
+ *
+ * PersistentWAVLTree
+ *
+ * A persistent WAVL Tree with distinct integer keys and info.
+ * Nodes are immutable: insert and delete copy only the nodes on the search
+ * path and the few nodes touched by rotations, and share everything else
+ * with the previous version. snapshot() returns an immutable version in O(1);
+ * old versions are reclaimed by the GC once nothing refers to them.
+ *
+ * Writers are serialized, readers (of the tree or of any snapshot) never lock.
+ *
+ */
+
+public class PersistentWAVLTree {
+
+	private volatile Node root;
+	private final boolean readOnly;
+
+	// rebalancing operations of the running insert or delete, -1 if it changed nothing
+	private int steps;
+
+	private static final class Node {
+		private final int key;
+		private final String info;
+		private final Node left;
+		private final Node right;
+		private final int rank;
+		private final int size;
+
+		private Node(int key, String info, Node left, Node right, int rank) {
+			this.key = key;
+			this.info = info;
+			this.left = left;
+			this.right = right;
+			this.rank = rank;
+			this.size = sizeOf(left) + sizeOf(right) + 1;
+		}
+
+		private Node withLeft(Node l, int r) {
+			return new Node(key, info, l, right, r);
+		}
+
+		private Node withRight(Node rt, int r) {
+			return new Node(key, info, left, rt, r);
+		}
+	}
+
+	public PersistentWAVLTree() {
+		this(null, false);
+	}
+
+	private PersistentWAVLTree(Node root, boolean readOnly) {
+		this.root = root;
+		this.readOnly = readOnly;
+	}
+
+   /**
+    * public PersistentWAVLTree snapshot()
+    *
+    * Returns the current version of the tree in O(1).
+    * The snapshot never changes, and insert and delete on it throw UnsupportedOperationException.
+    */
+	public PersistentWAVLTree snapshot() {
+		return new PersistentWAVLTree(root, true);
+	}
+
+  /**
+   * public boolean empty()
+   *
+   * returns true if and only if the tree is empty
+   *
+   */
+	public boolean empty() {
+		return (null == root);
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists in the tree
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		Node x = root;
+		while (null != x && x.key != k) {
+			x = (k < x.key) ? x.left : x.right;
+		}
+		return (null == x) ? null : x.info;
+	}
+
+   /**
+    * public String select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0
+    * (returns "-1" if i is out of range), as WAVLTree.select does.
+    */
+	public String select(int i) {
+		Node x = root;
+		if (0 > i || i >= sizeOf(x)) {
+			return "-1";
+		}
+
+		while (true) {
+			int r = sizeOf(x.left);
+			if (i == r) {
+				return x.info;
+			} else if (i < r) {
+				x = x.left;
+			} else {
+				i -= r + 1;
+				x = x.right;
+			}
+		}
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of nodes in the tree.
+    */
+	public int size() {
+		return sizeOf(root);
+	}
+
+   /**
+    * public String min()
+    *
+    * Returns the info of the item with the smallest key in the tree,
+    * or null if the tree is empty
+    */
+	public String min() {
+		Node x = root;
+		if (null == x) {
+			return null;
+		}
+		while (null != x.left) {
+			x = x.left;
+		}
+		return x.info;
+	}
+
+   /**
+    * public String max()
+    *
+    * Returns the info of the item with the largest key in the tree,
+    * or null if the tree is empty
+    */
+	public String max() {
+		Node x = root;
+		if (null == x) {
+			return null;
+		}
+		while (null != x.right) {
+			x = x.right;
+		}
+		return x.info;
+	}
+
+  /**
+   * public int[] keysToArray()
+   *
+   * Returns a sorted array which contains all keys in the tree,
+   * or an empty array if the tree is empty.
+   */
+	public int[] keysToArray() {
+		Node x = root;
+		int[] arr = new int[sizeOf(x)];
+		keysToArray(x, arr, 0);
+		return arr;
+	}
+
+	private static int keysToArray(Node x, int[] arr, int i) {
+		if (null == x) {
+			return i;
+		}
+		i = keysToArray(x.left, arr, i);
+		arr[i++] = x.key;
+		return keysToArray(x.right, arr, i);
+	}
+
+  /**
+   * public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer)
+   *
+   * Passes every item with lo <= key <= hi to the consumer in increasing key order.
+   */
+	public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer) {
+		forEachInRange(root, lo, hi, consumer);
+	}
+
+	private static void forEachInRange(Node x, int lo, int hi, WAVLTree.EntryConsumer consumer) {
+		if (null == x) {
+			return;
+		}
+		if (lo < x.key) {
+			forEachInRange(x.left, lo, hi, consumer);
+		}
+		if (lo <= x.key && x.key <= hi) {
+			consumer.accept(x.key, x.info);
+		}
+		if (x.key < hi) {
+			forEachInRange(x.right, lo, hi, consumer);
+		}
+	}
+
+  /**
+   * public int insert(int k, String i)
+   *
+   * inserts an item with key k and info i to the WAVL tree.
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+   * returns -1 if an item with key k already exists in the tree.
+   */
+	public synchronized int insert(int k, String i) {
+		checkWritable();
+		steps = 0;
+		Node r = insert(root, k, i);
+		if (-1 != steps) {
+			root = r;
+		}
+		return steps;
+	}
+
+	private Node insert(Node x, int k, String i) {
+		if (null == x) {
+			return new Node(k, i, null, null, 0);
+		}
+		if (k == x.key) {
+			steps = -1;
+			return x;
+		}
+
+		if (k < x.key) {
+			Node l = insert(x.left, k, i);
+			return (-1 == steps) ? x : balanceInsertLeft(x, l);
+		} else {
+			Node r = insert(x.right, k, i);
+			return (-1 == steps) ? x : balanceInsertRight(x, r);
+		}
+	}
+
+	/*
+	 * x with its left subtree replaced by l, which may be a 0-child
+	 */
+	private Node balanceInsertLeft(Node x, Node l) {
+		if (x.rank > l.rank) {
+			return x.withLeft(l, x.rank);
+		}
+
+		// sibling is a 1-child - promote
+		if (1 == x.rank - rankOf(x.right)) {
+			steps++;
+			return x.withLeft(l, x.rank + 1);
+		}
+
+		// sibling is a 2-child - rotate
+		Node inner = l.right;
+		if (2 == l.rank - rankOf(inner)) {
+			steps += 1;
+			return l.withRight(x.withLeft(inner, x.rank - 1), l.rank);
+		}
+		steps += 2;
+		return new Node(inner.key, inner.info,
+				l.withRight(inner.left, l.rank - 1),
+				x.withLeft(inner.right, x.rank - 1),
+				inner.rank + 1);
+	}
+
+	/*
+	 * x with its right subtree replaced by r, which may be a 0-child
+	 */
+	private Node balanceInsertRight(Node x, Node r) {
+		if (x.rank > r.rank) {
+			return x.withRight(r, x.rank);
+		}
+
+		// sibling is a 1-child - promote
+		if (1 == x.rank - rankOf(x.left)) {
+			steps++;
+			return x.withRight(r, x.rank + 1);
+		}
+
+		// sibling is a 2-child - rotate
+		Node inner = r.left;
+		if (2 == r.rank - rankOf(inner)) {
+			steps += 1;
+			return r.withLeft(x.withRight(inner, x.rank - 1), r.rank);
+		}
+		steps += 2;
+		return new Node(inner.key, inner.info,
+				x.withRight(inner.left, x.rank - 1),
+				r.withLeft(inner.right, r.rank - 1),
+				inner.rank + 1);
+	}
+
+  /**
+   * public int delete(int k)
+   *
+   * deletes an item with key k from the binary tree, if it is there.
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+   * returns -1 if an item with key k was not found in the tree.
+   */
+	public synchronized int delete(int k) {
+		checkWritable();
+		steps = 0;
+		Node r = delete(root, k);
+		if (-1 != steps) {
+			root = r;
+		}
+		return steps;
+	}
+
+	private Node delete(Node x, int k) {
+		if (null == x) {
+			steps = -1;
+			return null;
+		}
+
+		if (k < x.key) {
+			Node l = delete(x.left, k);
+			return (-1 == steps) ? x : balanceDeleteLeft(x.withLeft(l, x.rank));
+		} else if (k > x.key) {
+			Node r = delete(x.right, k);
+			return (-1 == steps) ? x : balanceDeleteRight(x.withRight(r, x.rank));
+		}
+
+		if (null == x.left) {
+			return x.right;
+		}
+		if (null == x.right) {
+			return x.left;
+		}
+
+		// the successor takes x's place
+		Node s = x.right;
+		while (null != s.left) {
+			s = s.left;
+		}
+		Node r = delete(x.right, s.key);
+		return balanceDeleteRight(new Node(s.key, s.info, x.left, r, x.rank));
+	}
+
+	/*
+	 * x after its left subtree lost a node, the left child may be a 3-child
+	 */
+	private Node balanceDeleteLeft(Node x) {
+		if (isTwoTwoLeaf(x)) {
+			steps++;
+			return x.withLeft(null, 0);
+		}
+		if (3 != x.rank - rankOf(x.left)) {
+			return x;
+		}
+
+		Node s = x.right;
+
+		// sibling is a 2-child - demote
+		if (2 == x.rank - s.rank) {
+			steps++;
+			return x.withLeft(x.left, x.rank - 1);
+		}
+
+		// sibling is a 2,2 node - double demote
+		if (2 == s.rank - rankOf(s.left) && 2 == s.rank - rankOf(s.right)) {
+			steps += 2;
+			return x.withRight(s.withLeft(s.left, s.rank - 1), x.rank - 1);
+		}
+
+		if (1 == s.rank - rankOf(s.right)) {
+			// single rotation
+			steps += 1;
+			Node z = x.withRight(s.left, x.rank - 1);
+			if (null == z.left && null == z.right) {
+				z = z.withRight(null, 0);
+			}
+			return s.withLeft(z, s.rank + 1);
+		}
+
+		// double rotation
+		steps += 2;
+		Node inner = s.left;
+		return new Node(inner.key, inner.info,
+				x.withRight(inner.left, x.rank - 2),
+				s.withLeft(inner.right, s.rank - 1),
+				inner.rank + 2);
+	}
+
+	/*
+	 * x after its right subtree lost a node, the right child may be a 3-child
+	 */
+	private Node balanceDeleteRight(Node x) {
+		if (isTwoTwoLeaf(x)) {
+			steps++;
+			return x.withRight(null, 0);
+		}
+		if (3 != x.rank - rankOf(x.right)) {
+			return x;
+		}
+
+		Node s = x.left;
+
+		// sibling is a 2-child - demote
+		if (2 == x.rank - s.rank) {
+			steps++;
+			return x.withRight(x.right, x.rank - 1);
+		}
+
+		// sibling is a 2,2 node - double demote
+		if (2 == s.rank - rankOf(s.left) && 2 == s.rank - rankOf(s.right)) {
+			steps += 2;
+			return x.withLeft(s.withRight(s.right, s.rank - 1), x.rank - 1);
+		}
+
+		if (1 == s.rank - rankOf(s.left)) {
+			// single rotation
+			steps += 1;
+			Node z = x.withLeft(s.right, x.rank - 1);
+			if (null == z.left && null == z.right) {
+				z = z.withLeft(null, 0);
+			}
+			return s.withRight(z, s.rank + 1);
+		}
+
+		// double rotation
+		steps += 2;
+		Node inner = s.right;
+		return new Node(inner.key, inner.info,
+				s.withRight(inner.left, s.rank - 1),
+				x.withLeft(inner.right, x.rank - 2),
+				inner.rank + 2);
+	}
+
+	private static boolean isTwoTwoLeaf(Node x) {
+		return null == x.left && null == x.right && 1 == x.rank;
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("a snapshot is immutable");
+		}
+	}
+
+	private static int rankOf(Node x) {
+		return (null == x) ? -1 : x.rank;
+	}
+
+	private static int sizeOf(Node x) {
+		return (null == x) ? 0 : x.size;
+	}
+
+}
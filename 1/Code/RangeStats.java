@@ -0,0 +1,82 @@
+package WAVLTree;
+
+import java.util.function.ToLongFunction;
+
+/**
+ *
+ * RangeStats
+ *
+ * The count, sum, minimum and maximum of a long metric over a range of values,
+ * maintained as a WAVL map augmentation.
+ *
+ */
+
+public final class RangeStats {
+	private final int count;
+	private final long sum;
+	private final long min;
+	private final long max;
+
+	private RangeStats(int count, long sum, long min, long max) {
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * public static <V> Augmenter<V, RangeStats> augmenter(ToLongFunction<? super V> metric)
+	 *
+	 * Returns an augmenter aggregating the metric of the values.
+	 */
+	public static <V> Augmenter<V, RangeStats> augmenter(final ToLongFunction<? super V> metric) {
+		return new Augmenter<V, RangeStats>() {
+			@Override
+			public RangeStats of(V value) {
+				long m = metric.applyAsLong(value);
+				return new RangeStats(1, m, m, m);
+			}
+
+			@Override
+			public RangeStats combine(RangeStats left, RangeStats right) {
+				return new RangeStats(left.count + right.count, left.sum + right.sum,
+						Math.min(left.min, right.min), Math.max(left.max, right.max));
+			}
+		};
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof RangeStats)) {
+			return false;
+		}
+		RangeStats s = (RangeStats) o;
+		return count == s.count && sum == s.sum && min == s.min && max == s.max;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (31 * (31 * (31 * count + sum) + min) + max);
+	}
+
+	@Override
+	public String toString() {
+		return "RangeStats(count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max + ")";
+	}
+}
@@ -0,0 +1,305 @@
+package WAVLTree;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *
+ * ShardedWAVLTree
+ *
+ * A thread-safe map with distinct integer keys and info, range-partitioned
+ * over independent WAVL Trees (shards) which are each guarded by their own lock,
+ * so writers to different key ranges do not contend.
+ *
+ * A shard which grows beyond maxShardSize is split at its median key with
+ * WAVLTree.split; the shard table is copied on write and the old shard is
+ * retired, an operation which locked a retired shard routes again.
+ *
+ * Operations on a single key are linearizable. size, select, countInRange and
+ * forEachInRange visit the shards one after the other, so under concurrent
+ * writes they may see every shard at a different moment.
+ *
+ */
+
+public class ShardedWAVLTree {
+	private static final long KEYS_END = (long) Integer.MAX_VALUE + 1;
+
+	private final int maxShardSize;
+
+	// ordered by key range, replaced as a whole when a shard splits
+	private volatile Shard[] shards;
+	private final Object splitLock = new Object();
+
+	/*
+	 * holds the keys in [lowKey, highKey)
+	 */
+	private static final class Shard {
+		private final long lowKey;
+		private final long highKey;
+		private final WAVLTree tree;
+		private final ReentrantReadWriteLock lock;
+		private boolean retired; // guarded by lock
+
+		private Shard(long lowKey, long highKey, WAVLTree tree) {
+			this.lowKey = lowKey;
+			this.highKey = highKey;
+			this.tree = tree;
+			this.lock = new ReentrantReadWriteLock();
+			this.retired = false;
+		}
+	}
+
+	// maxShardSize >= 1
+	public ShardedWAVLTree(int maxShardSize) {
+		this(new int[0], maxShardSize);
+	}
+
+	// boundaries are the strictly increasing lowest keys of the initial shards after the first one
+	public ShardedWAVLTree(int[] boundaries, int maxShardSize) {
+		if (maxShardSize < 1) {
+			throw new IllegalArgumentException("maxShardSize must be positive");
+		}
+		this.maxShardSize = maxShardSize;
+
+		Shard[] initial = new Shard[boundaries.length + 1];
+		long low = Integer.MIN_VALUE;
+		for (int j = 0; j <= boundaries.length; j++) {
+			long high = (j < boundaries.length) ? boundaries[j] : KEYS_END;
+			if (high <= low) {
+				throw new IllegalArgumentException("boundaries are not strictly increasing");
+			}
+			initial[j] = new Shard(low, high, new WAVLTree());
+			low = high;
+		}
+		shards = initial;
+	}
+
+  /**
+   * public String search(int k)
+   *
+   * returns the info of an item with key k if it exists
+   * otherwise, returns null
+   */
+	public String search(int k) {
+		Shard s = lockShard(k, false);
+		try {
+			return s.tree.search(k);
+		} finally {
+			s.lock.readLock().unlock();
+		}
+	}
+
+  /**
+   * public int insert(int k, String i)
+   *
+   * inserts an item with key k and info i to its shard, as WAVLTree.insert does.
+   */
+	public int insert(int k, String i) {
+		Shard s = lockShard(k, true);
+		int res;
+		int size;
+		try {
+			res = s.tree.insert(k, i);
+			size = s.tree.size();
+		} finally {
+			s.lock.writeLock().unlock();
+		}
+
+		if (size > maxShardSize) {
+			splitShard(s);
+		}
+		return res;
+	}
+
+  /**
+   * public int delete(int k)
+   *
+   * deletes the item with key k from its shard, as WAVLTree.delete does.
+   */
+	public int delete(int k) {
+		Shard s = lockShard(k, true);
+		try {
+			return s.tree.delete(k);
+		} finally {
+			s.lock.writeLock().unlock();
+		}
+	}
+
+   /**
+    * public String select(int i)
+    *
+    * Returns the value of the i'th smallest key, counting from 0
+    * (returns "-1" if i is out of range), as WAVLTree.select does.
+    */
+	public String select(int i) {
+		if (0 > i) {
+			return "-1";
+		}
+
+		long from = Integer.MIN_VALUE;
+		while (KEYS_END != from) {
+			Shard s = lockShard((int) from, false);
+			try {
+				int n = s.tree.size();
+				if (i < n) {
+					return s.tree.select(i);
+				}
+				i -= n;
+				from = s.highKey;
+			} finally {
+				s.lock.readLock().unlock();
+			}
+		}
+		return "-1";
+	}
+
+  /**
+   * public int countInRange(int lo, int hi)
+   *
+   * Returns the number of keys k with lo <= k <= hi.
+   */
+	public int countInRange(int lo, int hi) {
+		int count = 0;
+		long from = lo;
+		while (from <= hi) {
+			Shard s = lockShard((int) from, false);
+			try {
+				count += s.tree.countInRange((int) from, hi);
+				from = s.highKey;
+			} finally {
+				s.lock.readLock().unlock();
+			}
+		}
+		return count;
+	}
+
+  /**
+   * public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer)
+   *
+   * Passes every item with lo <= key <= hi to the consumer in increasing key order.
+   */
+	public void forEachInRange(int lo, int hi, WAVLTree.EntryConsumer consumer) {
+		long from = lo;
+		while (from <= hi) {
+			Shard s = lockShard((int) from, false);
+			try {
+				s.tree.forEachInRange((int) from, hi, consumer);
+				from = s.highKey;
+			} finally {
+				s.lock.readLock().unlock();
+			}
+		}
+	}
+
+   /**
+    * public int size()
+    *
+    * Returns the number of items, summed over the shards. Like select, it sees
+    * every shard at a different moment, so it is not linearizable under concurrent writes.
+    */
+	public int size() {
+		while (true) {
+			// a retired shard has handed its items to shards missing from this table
+			int size = 0;
+			boolean stale = false;
+			for (Shard s : shards) {
+				s.lock.readLock().lock();
+				try {
+					stale |= s.retired;
+					size += s.tree.size();
+				} finally {
+					s.lock.readLock().unlock();
+				}
+				if (stale) {
+					break;
+				}
+			}
+			if (!stale) {
+				return size;
+			}
+		}
+	}
+
+   /**
+    * public int shardCount()
+    *
+    * Returns the current number of shards.
+    */
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/*
+	 * returns the live shard of key k, locked for reading or writing
+	 */
+	private Shard lockShard(int k, boolean write) {
+		while (true) {
+			Shard s = route(shards, k);
+			if (write) {
+				s.lock.writeLock().lock();
+			} else {
+				s.lock.readLock().lock();
+			}
+
+			if (!s.retired) {
+				return s;
+			}
+
+			if (write) {
+				s.lock.writeLock().unlock();
+			} else {
+				s.lock.readLock().unlock();
+			}
+		}
+	}
+
+	private static Shard route(Shard[] table, int k) {
+		int lo = 0;
+		int hi = table.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (table[mid].lowKey <= k) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return table[lo];
+	}
+
+	/*
+	 * splits s at its median key into two new shards and retires it
+	 */
+	private void splitShard(Shard s) {
+		s.lock.writeLock().lock();
+		try {
+			int size = s.tree.size();
+			if (s.retired || size <= maxShardSize) {
+				return;
+			}
+
+			int mid = s.tree.selectRec(s.tree.getRoot(), size / 2).getKey();
+			WAVLTree[] parts = s.tree.split(mid);
+			Shard low = new Shard(s.lowKey, mid, parts[0]);
+			Shard high = new Shard(mid, s.highKey, parts[1]);
+
+			synchronized (splitLock) {
+				Shard[] table = shards;
+				Shard[] next = new Shard[table.length + 1];
+				int j = 0;
+				for (Shard t : table) {
+					if (t == s) {
+						next[j++] = low;
+						next[j++] = high;
+					} else {
+						next[j++] = t;
+					}
+				}
+				shards = next;
+			}
+			s.retired = true;
+		} finally {
+			s.lock.writeLock().unlock();
+		}
+	}
+
+}
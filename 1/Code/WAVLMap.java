@@ -0,0 +1,157 @@
+package WAVLTree;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *
+ * WAVLMap
+ *
+ * A WAVL Tree map with distinct keys of any type, ordered by a Comparator
+ * (or by their natural ordering when no Comparator is given).
+ * For int and long keys prefer IntWAVLMap and LongWAVLMap.
+ *
+ */
+
+public class WAVLMap<K, V> extends AbstractWAVLMap<V, WAVLMap.Node<K, V>> {
+
+	private final Comparator<? super K> comparator;
+
+	protected static final class Node<K, V> extends AbstractWAVLMap.Node<V, Node<K, V>> {
+		private final K key;
+
+		private Node(K k, V v) {
+			super(v);
+			key = k;
+		}
+
+		public K getKey() {
+			return key;
+		}
+	}
+
+	// keys must be Comparable
+	public WAVLMap() {
+		this(null);
+	}
+
+	public WAVLMap(Comparator<? super K> c) {
+		this(c, null);
+	}
+
+	// keeps the aggregate of the values of every subtree, see aggregate(lo, hi)
+	public WAVLMap(Comparator<? super K> c, Augmenter<? super V, ?> augmenter) {
+		super(augmenter);
+		comparator = c;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(K a, K b) {
+		return (null != comparator) ? comparator.compare(a, b) : ((Comparable<? super K>) a).compareTo(b);
+	}
+
+	private Node<K, V> findNode(K k) {
+		Node<K, V> x = root;
+		while (null != x) {
+			int c = compare(k, x.key);
+			if (0 == c) {
+				break;
+			}
+			x = (c < 0) ? x.left : x.right;
+		}
+		return x;
+	}
+
+  /**
+   * public V search(K k)
+   *
+   * returns the value of an item with key k if it exists in the map
+   * otherwise, returns null
+   */
+	public V search(K k) {
+		Node<K, V> x = findNode(k);
+		return (null == x) ? null : x.value;
+	}
+
+  /**
+   * public int insert(K k, V v)
+   *
+   * inserts an item with key k and value v to the map.
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+   * returns -1 if an item with key k already exists in the map.
+   */
+	public int insert(K k, V v) {
+		Node<K, V> y = null;
+		Node<K, V> x = root;
+		int c = 0;
+		while (null != x) {
+			c = compare(k, x.key);
+			if (0 == c) {
+				return -1;
+			}
+			y = x;
+			x = (c < 0) ? x.left : x.right;
+		}
+		return insertNode(y, new Node<K, V>(k, v), c < 0);
+	}
+
+  /**
+   * public int delete(K k)
+   *
+   * deletes an item with key k from the map, if it is there.
+   * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+   * returns -1 if an item with key k was not found in the map.
+   */
+	public int delete(K k) {
+		Node<K, V> x = findNode(k);
+		return (null == x) ? -1 : deleteNode(x);
+	}
+
+  /**
+   * public <A> A aggregate(K lo, K hi)
+   *
+   * Returns the aggregate of the values of the items with lo <= key <= hi,
+   * of the type of the augmenter given at construction, or null if there are no such items.
+   * runs in O(log n)
+   */
+	@SuppressWarnings("unchecked")
+	public <A> A aggregate(K lo, K hi) {
+		int from = countBelow(lo, false);
+		int to = countBelow(hi, true);
+		return (from < to) ? (A) aggregateRange(from, to) : null;
+	}
+
+	/*
+	 * number of keys smaller than k (or equal to it, if inclusive)
+	 */
+	private int countBelow(K k, boolean inclusive) {
+		int count = 0;
+		Node<K, V> x = root;
+		while (null != x) {
+			int c = compare(k, x.key);
+			if (c > 0 || (inclusive && 0 == c)) {
+				count += sizeOf(x.left) + 1;
+				x = x.right;
+			} else {
+				x = x.left;
+			}
+		}
+		return count;
+	}
+
+  /**
+   * public List<K> keysToList()
+   *
+   * Returns a sorted list which contains all keys in the map,
+   * or an empty list if the map is empty.
+   */
+	public List<K> keysToList() {
+		List<K> keys = new ArrayList<K>(size());
+		for (Node<K, V> x = firstNode(); null != x; x = successor(x)) {
+			keys.add(x.key);
+		}
+		return keys;
+	}
+
+}
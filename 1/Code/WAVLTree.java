@@ -1,6 +1,17 @@
 package WAVLTree;
 
 import java.awt.HeadlessException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
 
 import javax.print.attribute.standard.RequestingUserName;
 
@@ -17,19 +28,125 @@ public class WAVLTree {
 	private static final int RIGHT_DIRECTION = 0;
 	private static final int LEFT_DIRECTION = 1;
 
+	private static final int UNION = 0;
+	private static final int INTERSECT = 1;
+	private static final int DIFFERENCE = 2;
+	// set operations on fewer nodes than this run on the calling thread
+	private static final int PARALLEL_THRESHOLD = 1 << 12;
+
 
 	private IWAVLNode root;
 	
 	private WAVLNode virtualLeaf;
 	
-	private String minVal;
-	private String maxVal;
+	// nodes with the smallest and largest keys, null if the tree is empty
+	private WAVLNode first;
+	private WAVLNode last;
+	
+	// the node the last finger operation touched, null if there is none
+	private WAVLNode finger;
 	
 	public WAVLTree() {
 		root = null;
 		virtualLeaf = new WAVLNode();
 	}
 	
+  /**
+   * public static WAVLTree fromSorted(int[] keys, String[] values)
+   *
+   * builds a tree of the items keys[j] with info values[j],
+   * in O(n) and without any rebalancing operations.
+   * precondition: keys are in strictly increasing order, keys.length == values.length
+   */
+  public static WAVLTree fromSorted(int[] keys, String[] values)
+  {
+	  if (keys.length != values.length) {
+		  throw new IllegalArgumentException("keys and values differ in length");
+	  }
+	  return fromSorted(keys.length, Arrays.stream(keys).iterator(), Arrays.asList(values).iterator());
+  }
+
+  /**
+   * public static WAVLTree fromSorted(int n, PrimitiveIterator.OfInt keys, Iterator<String> values)
+   *
+   * builds a tree of the next n keys and their respective info,
+   * consuming both iterators in order, in O(n) and without any rebalancing operations.
+   * precondition: keys are in strictly increasing order, both iterators have n more elements
+   */
+  public static WAVLTree fromSorted(int n, PrimitiveIterator.OfInt keys, Iterator<String> values)
+  {
+	  WAVLTree t = new WAVLTree();
+	  if (0 < n) {
+		  t.root = t.new SortedLoader(keys, values).build(n);
+	  }
+	  return t;
+  }
+
+  /**
+   * public void writeSnapshot(Path path)
+   *
+   * writes the items in key order to a compact binary file, which
+   * MappedWAVLTree.open maps and serves without deserializing.
+   */
+  public void writeSnapshot(Path path) throws IOException
+  {
+	  MappedWAVLTree.write(this, path);
+  }
+
+  /**
+   * public FrozenWAVLTree freeze()
+   *
+   * returns an immutable copy of the tree in a cache-friendly array layout,
+   * in O(n). later changes to this tree do not affect it.
+   */
+  public FrozenWAVLTree freeze()
+  {
+	  return new FrozenWAVLTree(keysToArray(), infoToArray());
+  }
+
+  /*
+   * builds a perfectly balanced tree in-order from sorted input,
+   * the rank of every node is its height so all rank differences are 1 or 2.
+   * nodes are threaded in the order they are created
+   */
+  private class SortedLoader {
+	  private final PrimitiveIterator.OfInt keys;
+	  private final Iterator<String> values;
+	  private boolean started = false;
+	  private int lastKey;
+
+	  private SortedLoader(PrimitiveIterator.OfInt keys, Iterator<String> values) {
+		  this.keys = keys;
+		  this.values = values;
+	  }
+
+	  private WAVLNode build(int n) {
+		  if (0 == n) {
+			  return virtualLeaf;
+		  }
+
+		  int leftSize = (n - 1) / 2;
+		  WAVLNode l = build(leftSize);
+
+		  int k = keys.nextInt();
+		  if (started && k <= lastKey) {
+			  throw new IllegalArgumentException("keys are not strictly increasing: " + lastKey + ", " + k);
+		  }
+		  started = true;
+		  lastKey = k;
+		  WAVLNode x = new WAVLNode(k, values.next());
+		  linkBetween(last, x, null);
+
+		  WAVLNode r = build(n - 1 - leftSize);
+
+		  x.setLeft(l);
+		  x.setRight(r);
+		  updateNodeSizeAndHeight(x);
+		  x.setRank(x.getHeight());
+		  return x;
+	  }
+  }
+	
 	
   /**
    * public boolean empty()
@@ -63,6 +180,88 @@ public class WAVLTree {
 	  
 	  return ( x != null && x.isRealNode() && x.getKey() == k ) ? x.getValue() : null;  
   }
+
+  /**
+   * public void searchAll(int[] keys, String[] out)
+   *
+   * sets out[j] to search(keys[j]) for every j, walking the tree once:
+   * the probes are sorted (unless they already are) and split at every node,
+   * so a path shared by several probes is walked once, in O(m log(n/m + 1) + m log m).
+   * the probes are not interleaved: each branch of the walk runs to its end before the next,
+   * so the cache misses of independent probes below the shared paths are not overlapped.
+   * precondition: out.length >= keys.length
+   */
+  public void searchAll(int[] keys, String[] out)
+  {
+	  int m = keys.length;
+	  if (out.length < m) {
+		  throw new IllegalArgumentException("out is shorter than keys");
+	  }
+
+	  boolean sorted = true;
+	  for (int j = 1; sorted && j < m; j++) {
+		  sorted = keys[j - 1] <= keys[j];
+	  }
+	  if (sorted) {
+		  searchAll(root, keys, null, out, 0, m);
+		  return;
+	  }
+
+	  // sort (key, position) pairs, the key in the high half orders them by key
+	  long[] packed = new long[m];
+	  for (int j = 0; j < m; j++) {
+		  packed[j] = ((long) keys[j] << 32) | j;
+	  }
+	  Arrays.sort(packed);
+	  int[] probes = new int[m];
+	  int[] order = new int[m];
+	  for (int j = 0; j < m; j++) {
+		  probes[j] = (int) (packed[j] >> 32);
+		  order[j] = (int) packed[j];
+	  }
+	  searchAll(root, probes, order, out, 0, m);
+  }
+
+  /*
+   * answers the sorted probes[from, to) in the subtree of x,
+   * the answer of probes[j] goes to out[order[j]] (out[j] if order is null)
+   */
+  private void searchAll(IWAVLNode x, int[] probes, int[] order, String[] out, int from, int to)
+  {
+	  while (from < to) {
+		  if (null == x || !x.isRealNode()) {
+			  for (int j = from; j < to; j++) {
+				  out[(null == order) ? j : order[j]] = null;
+			  }
+			  return;
+		  }
+
+		  int k = x.getKey();
+		  int mid = Arrays.binarySearch(probes, from, to, k);
+		  int lo;
+		  int hi;
+		  if (mid < 0) {
+			  lo = hi = -mid - 1;
+		  } else {
+			  // equal probes are adjacent
+			  lo = mid;
+			  while (lo > from && probes[lo - 1] == k) {
+				  lo--;
+			  }
+			  hi = mid + 1;
+			  while (hi < to && probes[hi] == k) {
+				  hi++;
+			  }
+			  for (int j = lo; j < hi; j++) {
+				  out[(null == order) ? j : order[j]] = x.getValue();
+			  }
+		  }
+
+		  searchAll(x.getLeft(), probes, order, out, from, lo);
+		  x = x.getRight();
+		  from = hi;
+	  }
+  }
   
   
   
@@ -86,21 +285,22 @@ public class WAVLTree {
 		   root = z;
 		   ((WAVLNode) root).setLeft(virtualLeaf);
 		   ((WAVLNode) root).setRight(virtualLeaf);
+		   linkBetween(null, (WAVLNode) z, null);
 //		   return 0;
 	   } else {
 		   res = treeInsert(root, z);	
 	   }
 	   
-	   
-	   recalculateMin();
-	   recalculateMax();
 	   return res;
    }
 
 // z is the node to be inserted to the sub tree of x
 private int treeInsert(IWAVLNode x, IWAVLNode z) {
-	IWAVLNode y = treePosition(x, z.getKey());
-	
+	return insertAt(treePosition(x, z.getKey()), z);
+}
+
+// y is the position of z's key, as returned by treePosition
+private int insertAt(IWAVLNode y, IWAVLNode z) {
 	if (z.getKey() == y.getKey())
 	{
 		return -1;
@@ -110,8 +310,10 @@ private int treeInsert(IWAVLNode x, IWAVLNode z) {
 	
 	if (z.getKey() < y.getKey()) {
 		((WAVLNode) y).setLeft(z);
+		linkBetween(((WAVLNode) y).prev, (WAVLNode) z, (WAVLNode) y);
 	} else {
 		((WAVLNode) y).setRight(z);
+		linkBetween((WAVLNode) y, (WAVLNode) z, ((WAVLNode) y).next);
 	}
 		
 	int rebSteps = rebalanceInsert((WAVLNode)z);
@@ -279,7 +481,7 @@ private int treeInsert(IWAVLNode x, IWAVLNode z) {
 			}
 		}
 
-		b.parent = z;
+		b.setParent(z);
 		z.left = b;
 		
 		x.right = z;
@@ -307,7 +509,7 @@ private int treeInsert(IWAVLNode x, IWAVLNode z) {
 				root = x;
 			}
 		}
-		a.parent = z;
+		a.setParent(z);
 		z.right = a;
 
 		x.left = z;
@@ -449,6 +651,123 @@ private void updateNodeSizeAndHeight(WAVLNode p) {
 	return y;
 }
 
+/*
+ * replaces the info of the item with key k without touching the shape of the tree,
+ * returns false if there is no such item. items otherwise never change their info,
+ * so this is only for trees nothing caches, such as the memtable of an LSMWAVLTree
+ */
+/*package*/ boolean replaceInfo(int k, String i) {
+	IWAVLNode x = treePosition(root, k);
+	if (null == x || x.getKey() != k) {
+		return false;
+	}
+	((WAVLNode) x).info = i;
+	return true;
+}
+
+/*
+ * as treePosition from the root, but climbs from the node f only as far as
+ * the lowest ancestor whose subtree holds the position of k; O(1) if k lies
+ * between f and one of its in-order neighbours
+ */
+/*package*/ IWAVLNode fingerPosition(WAVLNode f, int k) {
+	if (k == f.getKey()) {
+		return f;
+	}
+
+	// k lies next to f: it is in the subtree of f or of its in-order neighbour
+	WAVLNode n = (k > f.getKey()) ? f.next : f.prev;
+	if (null == n || (k > f.getKey() ? k <= n.getKey() : k >= n.getKey())) {
+		if (null != n && k == n.getKey()) {
+			return n;
+		}
+		IWAVLNode inner = (k > f.getKey()) ? f.getRight() : f.getLeft();
+		return inner.isRealNode() ? n : f;
+	}
+
+	WAVLNode x = f;
+	while (null != x.getParent()) {
+		WAVLNode p = (WAVLNode) x.getParent();
+		boolean isLeft = (p.getLeft() == x);
+		if (k == p.getKey()) {
+			return p;
+		}
+		// the key of the first ancestor on the far side bounds x's subtree
+		if ((k > f.getKey() && isLeft && k < p.getKey())
+				|| (k < f.getKey() && !isLeft && k > p.getKey())) {
+			break;
+		}
+		x = p;
+	}
+	return treePosition(x, k);
+}
+
+/**
+ * public String fingerSearch(int k)
+ *
+ * as search, but starts from the node the last finger operation touched
+ * and climbs only to the lowest ancestor whose subtree holds k, then descends.
+ * the cost is the height of that ancestor, which is small for most nearby keys
+ * but not bounded by O(log d) for a distance d: there are no level links,
+ * so two neighbours on opposite sides of the root still climb to the root.
+ */
+public String fingerSearch(int k)
+{
+	IWAVLNode y = fingerTo(k);
+	return (null != y && y.getKey() == k) ? y.getValue() : null;
+}
+
+/**
+ * public int fingerInsert(int k, String i)
+ *
+ * as insert, but searches from the node the last finger operation touched,
+ * so appending keys in increasing order finds its place in O(1).
+ * the insert itself still updates heights and sizes up to the root, in O(log n).
+ */
+public int fingerInsert(int k, String i)
+{
+	IWAVLNode y = fingerTo(k);
+	if (null == y) {
+		int res = insert(k, i);
+		finger = (WAVLNode) root;
+		return res;
+	}
+	WAVLNode z = new WAVLNode(k, i);
+	int res = insertAt(y, z);
+	if (-1 != res) {
+		finger = z;
+	}
+	return res;
+}
+
+/**
+ * public int fingerDelete(int k)
+ *
+ * as delete, but searches from the node the last finger operation touched.
+ */
+public int fingerDelete(int k)
+{
+	IWAVLNode y = fingerTo(k);
+	if (null == y) {
+		return -1;
+	}
+	// deleteAt moves the finger off y
+	finger = (WAVLNode) y;
+	return deleteAt((WAVLNode) y, k);
+}
+
+/*
+ * the position of k found from the finger, which then moves there
+ */
+private IWAVLNode fingerTo(int k)
+{
+	IWAVLNode y = (null == finger) ? treePosition(root, k) : fingerPosition(finger, k);
+	if (null != y) {
+		finger = (WAVLNode) y;
+	}
+	return y;
+}
+
 
 
 
@@ -469,7 +788,11 @@ private void updateNodeSizeAndHeight(WAVLNode p) {
 		   return -1;
 	   }
 	   
-	   WAVLNode y = (WAVLNode)treePosition(root, k);
+	   return deleteAt((WAVLNode)treePosition(root, k), k);
+   }
+
+// y is the position of k, as returned by treePosition
+private int deleteAt(WAVLNode y, int k) {
 	   WAVLNode rebalanceStartingNode = null;
 		
 		if (y.getKey() != k || !y.isRealNode() )
@@ -477,6 +800,13 @@ private void updateNodeSizeAndHeight(WAVLNode p) {
 			return -1;
 		}
 		
+		if (finger == y) {
+			finger = (null != y.prev) ? y.prev : y.next;
+		}
+		
+		WAVLNode s = y.next; // successor, needed when y has two children
+		unlink(y);
+		
 		
 		WAVLNode p = (WAVLNode) y.getParent();
 		
@@ -508,7 +838,7 @@ private void updateNodeSizeAndHeight(WAVLNode p) {
 			
 			if ( root == y ) {
 				root = y.getRight();
-				y.setParent(null);
+				((WAVLNode) root).setParent(null);
 			} else {
 				// y is left child - remove it
 				if ( p.getLeft() == y ) {
@@ -528,7 +858,7 @@ private void updateNodeSizeAndHeight(WAVLNode p) {
 
 			if ( root == y ) {
 				root = y.getLeft();
-				y.setParent(null);
+				((WAVLNode) root).setParent(null);
 			} else {
 				// y is left child - remove it
 				if ( p.getLeft() == y ) {
@@ -542,8 +872,6 @@ private void updateNodeSizeAndHeight(WAVLNode p) {
 
 		// the node has two children - use the successor
 		} else {
-			WAVLNode s = successor(y);
-			
 			WAVLNode sp = (WAVLNode)s.parent;
 			WAVLNode yp = (WAVLNode)y.parent;
 
@@ -606,8 +934,6 @@ private void updateNodeSizeAndHeight(WAVLNode p) {
 		}
 		
 		int res = rebalanceDelete(rebalanceStartingNode);	
-	   recalculateMin();
-	   recalculateMax();
 //		System.out.println("rebalanceStartingNode: " + rebalanceStartingNode.getKey() );
 	    return res;
    }
@@ -768,6 +1094,11 @@ private int deleteCase4(WAVLNode x, int deleteDirection) {
 	y.setRank(a.getRank());
 	a.setRank(oldZRank);
 
+	// y and z are now the children of a, update them before their new parent
+	updateNodeSizeAndHeight(y);
+	updateNodeSizeAndHeight(z);
+	updateNodeSizeAndHeight(a);
+
 	return 2;
 }
 
@@ -948,22 +1279,50 @@ private void replace(WAVLNode y, WAVLNode s) {
 }
 
 
+/*
+ * inserts z between the adjacent nodes p and n in the in-order thread,
+ * either may be null at the ends of the tree
+ */
+private void linkBetween(WAVLNode p, WAVLNode z, WAVLNode n) {
+	z.prev = p;
+	z.next = n;
+	if (null != p) {
+		p.next = z;
+	} else {
+		first = z;
+	}
+	if (null != n) {
+		n.prev = z;
+	} else {
+		last = z;
+	}
+}
+
+/*
+ * removes x from the in-order thread
+ */
+private void unlink(WAVLNode x) {
+	if (null != x.prev) {
+		x.prev.next = x.next;
+	} else {
+		first = x.next;
+	}
+	if (null != x.next) {
+		x.next.prev = x.prev;
+	} else {
+		last = x.prev;
+	}
+	x.prev = null;
+	x.next = null;
+}
+
 private WAVLNode successor(WAVLNode x) {
-	   if (null != x.getRight() ) {
-		   return (WAVLNode) minNode(x.right);
-	   }
-	   
-	   WAVLNode y = (WAVLNode) x.parent;
-	   
-	   while ((null != y) && (y.getRight() == x))
-	   {
-		   x = y;
-		   y = (WAVLNode) x.parent;
-	   }
-	   
-	   return y;
+	   return x.next;
+   }
+
+private WAVLNode predecessor(WAVLNode x) {
+	   return x.prev;
    }
-   
    
    
    /**
@@ -974,23 +1333,12 @@ private WAVLNode successor(WAVLNode x) {
     */
    public String min()
    {
-	   return minVal;
+	   return (null == first) ? null : first.getValue();
    }
    
    public void recalculateMin()
    {
-	   if ( null == root ) {
-		   minVal = null;
-		   return;
-	   }
-	   
-	   IWAVLNode x = root;
-	   while (x.getLeft().isRealNode())
-	   {
-		   x = x.getLeft();   
-	   }
-	   
-	   minVal =  x.getValue();
+	   first = (null == root) ? null : (WAVLNode) minNode(root);
    }
 
    
@@ -1012,23 +1360,22 @@ private WAVLNode successor(WAVLNode x) {
     */
    public String max()
    {
-	   return maxVal;
+	   return (null == last) ? null : last.getValue();
    }
 
    public void recalculateMax()
    {
-	   if ( null == root ) {
-		   maxVal = null;
-		   return;
-	   }
-	   
-	   IWAVLNode x = root;
+	   last = (null == root) ? null : (WAVLNode) maxNode(root);
+   }
+
+   public IWAVLNode maxNode(IWAVLNode n)
+   {
+	   IWAVLNode x = n;
 	   while (x.getRight().isRealNode())
 	   {
 		   x = x.getRight();   
 	   }
-	   maxVal =  x.getValue();
-
+	   return x;
    }
 
    
@@ -1198,6 +1545,713 @@ private WAVLNode successor(WAVLNode x) {
    }
    
    
+  /**
+   * public static WAVLTree join(WAVLTree left, int pivotKey, String pivotValue, WAVLTree right)
+   *
+   * returns a tree of all items of left, the pivot item and all items of right.
+   * runs in O(log n), the rebalancing work is proportional to the rank difference of the two trees.
+   * precondition: keys of left < pivotKey < keys of right
+   * postcondition: left and right are empty, their nodes now belong to the returned tree
+   */
+   public static WAVLTree join(WAVLTree left, int pivotKey, String pivotValue, WAVLTree right)
+   {
+	   if ( (!left.empty() && left.last.getKey() >= pivotKey) ||
+			(!right.empty() && right.first.getKey() <= pivotKey) ) {
+		   throw new IllegalArgumentException("pivot key " + pivotKey + " does not separate the trees");
+	   }
+
+	   WAVLTree t = new WAVLTree();
+	   WAVLNode x = t.new WAVLNode(pivotKey, pivotValue);
+	   t.joinRoots(left.root, x, right.root);
+	   t.linkBetween(left.last, x, right.first);
+	   t.first = left.empty() ? x : left.first;
+	   t.last = right.empty() ? x : right.last;
+	   left.clear();
+	   right.clear();
+
+	   return t;
+   }
+
+  /**
+   * public WAVLTree[] split(int k)
+   *
+   * splits the tree in O(log n) into two trees, the first holds the items with keys smaller than k
+   * and the second holds the items with keys greater than or equal to k.
+   * postcondition: this tree is empty, its nodes now belong to the returned trees
+   */
+   public WAVLTree[] split(int k)
+   {
+	   // both parts are contiguous in the in-order thread, only the link between them is cut
+	   WAVLNode below = (WAVLNode) lower(k);
+	   if (null != below && null != below.next) {
+		   below.next.prev = null;
+		   below.next = null;
+	   }
+
+	   IWAVLNode[] parts = splitRoots(root, k);
+	   if (null != parts[1]) {
+		   parts[2] = joinRoots(virtualLeaf, (WAVLNode) parts[1], parts[2]);
+	   }
+	   clear();
+	   return new WAVLTree[] { ofRoot(parts[0]), ofRoot(parts[2]) };
+   }
+
+   /*
+    * splits the subtree of x into the root of the subtree of keys smaller than k,
+    * the detached node with key k (or null if there is none)
+    * and the root of the subtree of keys greater than k
+    */
+   private IWAVLNode[] splitRoots(IWAVLNode x, int k)
+   {
+	   if (null == x || !x.isRealNode()) {
+		   return new IWAVLNode[] { virtualLeaf, null, virtualLeaf };
+	   }
+
+	   WAVLNode n = (WAVLNode) x;
+	   IWAVLNode l = detach(n.getLeft());
+	   IWAVLNode r = detach(n.getRight());
+
+	   if (k == n.getKey()) {
+		   return new IWAVLNode[] { l, n, r };
+	   } else if (k < n.getKey()) {
+		   IWAVLNode[] parts = splitRoots(l, k);
+		   parts[2] = joinRoots(parts[2], n, r);
+		   return parts;
+	   } else {
+		   IWAVLNode[] parts = splitRoots(r, k);
+		   parts[0] = joinRoots(l, n, parts[0]);
+		   return parts;
+	   }
+   }
+
+   /*
+    * links the subtrees l and r (either may be empty) where keys of l < keys of r,
+    * using the largest node of l as the pivot
+    */
+   private IWAVLNode joinRoots(IWAVLNode l, IWAVLNode r)
+   {
+	   if (null == l || !l.isRealNode()) {
+		   return r;
+	   }
+	   IWAVLNode[] parts = splitRoots(l, maxNode(l).getKey());
+	   return joinRoots(parts[0], (WAVLNode) parts[1], r);
+   }
+
+   private IWAVLNode detach(IWAVLNode x)
+   {
+	   ((WAVLNode) x).setParent(null);
+	   return x;
+   }
+
+   /*
+    * links the subtrees l and r (either may be empty) under x, where keys of l < x < keys of r,
+    * sets it as the root of this tree and returns it
+    */
+   private IWAVLNode joinRoots(IWAVLNode l, WAVLNode x, IWAVLNode r)
+   {
+	   WAVLNode wl = (WAVLNode) ((null == l) ? virtualLeaf : l);
+	   WAVLNode wr = (WAVLNode) ((null == r) ? virtualLeaf : r);
+
+	   if (wl.rank - wr.rank > 1) {
+		   // walk down the right spine of l to the first node with rank of r or less
+		   WAVLNode p = null;
+		   WAVLNode c = wl;
+		   while (c.rank > wr.rank) {
+			   p = c;
+			   c = (WAVLNode) c.getRight();
+		   }
+
+		   x.setLeft(c);
+		   x.setRight(wr);
+		   x.setRank(wr.rank + 1);
+		   p.setRight(x);
+		   root = wl;
+		   rebalanceJoin(x);
+	   } else if (wr.rank - wl.rank > 1) {
+		   // walk down the left spine of r to the first node with rank of l or less
+		   WAVLNode p = null;
+		   WAVLNode c = wr;
+		   while (c.rank > wl.rank) {
+			   p = c;
+			   c = (WAVLNode) c.getLeft();
+		   }
+
+		   x.setLeft(wl);
+		   x.setRight(c);
+		   x.setRank(wl.rank + 1);
+		   p.setLeft(x);
+		   root = wr;
+		   rebalanceJoin(x);
+	   } else {
+		   x.setLeft(wl);
+		   x.setRight(wr);
+		   x.setRank(Math.max(wl.rank, wr.rank) + 1);
+		   x.setParent(null);
+		   updateNodeSizeAndHeight(x);
+		   root = x;
+	   }
+
+	   return root;
+   }
+
+   /*
+    * x was just linked into the tree by a join and may be a 0-child,
+    * fix sizes and heights above it and rebalance as in insertion.
+    * unlike an inserted leaf, x itself may be a 1,1 node - then it is rotated up and promoted,
+    * after which the rebalancing continues as usual
+    */
+   private void rebalanceJoin(WAVLNode x)
+   {
+	   updateHeightFromNode(x);
+	   updateSizeFromNode(x);
+
+	   WAVLNode p = (WAVLNode) x.getParent();
+	   while (null != p && p.rank == x.rank) {
+		   boolean xIsLeft = (p.getLeft() == x);
+		   WAVLNode s = (WAVLNode) (xIsLeft ? p.getRight() : p.getLeft());
+
+		   if (1 == p.rank - s.rank) {
+			   promote(p);
+			   x = p;
+			   p = (WAVLNode) x.getParent();
+			   continue;
+		   }
+
+		   WAVLNode inner = (WAVLNode) (xIsLeft ? x.getRight() : x.getLeft());
+		   WAVLNode outer = (WAVLNode) (xIsLeft ? x.getLeft() : x.getRight());
+
+		   if (2 == x.rank - inner.rank) {
+			   rotateUp(x);
+			   demote(p);
+			   updateHeightFromNode(p);
+			   updateSizeFromNode(p);
+			   break;
+		   }
+
+		   if (2 == x.rank - outer.rank) {
+			   rotateUp(inner);
+			   rotateUp(inner);
+			   promote(inner);
+			   demote(x);
+			   demote(p);
+			   updateHeightFromNode(x);
+			   updateSizeFromNode(x);
+			   updateHeightFromNode(p);
+			   updateSizeFromNode(p);
+			   break;
+		   }
+
+		   rotateUp(x);
+		   promote(x);
+		   updateHeightFromNode(p);
+		   updateSizeFromNode(p);
+		   p = (WAVLNode) x.getParent();
+	   }
+   }
+
+   /*
+    * rotates x above its parent
+    */
+   private void rotateUp(WAVLNode x)
+   {
+	   if (x.parent.getLeft() == x) {
+		   rotateRight(x);
+	   } else {
+		   rotateLeft(x);
+	   }
+   }
+
+  /**
+   * public static WAVLTree union(WAVLTree t1, WAVLTree t2)
+   *
+   * returns a tree of the items of both trees, for a key in both trees the info of t1 is kept.
+   * runs in O(m log(n/m + 1)) work for trees of sizes m <= n, large subproblems run in parallel.
+   * postcondition: t1 and t2 are empty, their nodes now belong to the returned tree
+   */
+   public static WAVLTree union(WAVLTree t1, WAVLTree t2)
+   {
+	   return setOperation(UNION, t1, t2);
+   }
+
+  /**
+   * public static WAVLTree intersect(WAVLTree t1, WAVLTree t2)
+   *
+   * returns a tree of the items of t1 whose keys are also in t2.
+   * runs in O(m log(n/m + 1)) work for trees of sizes m <= n, large subproblems run in parallel.
+   * postcondition: t1 and t2 are empty, their nodes now belong to the returned tree
+   */
+   public static WAVLTree intersect(WAVLTree t1, WAVLTree t2)
+   {
+	   return setOperation(INTERSECT, t1, t2);
+   }
+
+  /**
+   * public static WAVLTree difference(WAVLTree t1, WAVLTree t2)
+   *
+   * returns a tree of the items of t1 whose keys are not in t2.
+   * runs in O(m log(n/m + 1)) work for trees of sizes m <= n, large subproblems run in parallel.
+   * postcondition: t1 and t2 are empty, their nodes now belong to the returned tree
+   */
+   public static WAVLTree difference(WAVLTree t1, WAVLTree t2)
+   {
+	   return setOperation(DIFFERENCE, t1, t2);
+   }
+
+   private static WAVLTree setOperation(int op, WAVLTree t1, WAVLTree t2)
+   {
+	   IWAVLNode r = ForkJoinPool.commonPool().invoke(new SetOperationTask(op, t1.root, t2.root));
+	   t1.clear();
+	   t2.clear();
+
+	   WAVLTree t = ofRoot(r);
+	   if (!t.empty()) {
+		   t.first.prev = null;
+		   t.last.next = null;
+	   }
+	   return t;
+   }
+
+   /*
+    * runs a set operation on two detached subtrees,
+    * every task uses its own tree to join and split in.
+    * the subtrees still end in the virtual leaves of the input trees,
+    * which is safe across threads since nothing writes a virtual leaf
+    */
+   @SuppressWarnings("serial")
+   private static class SetOperationTask extends RecursiveTask<IWAVLNode> {
+	   private final int op;
+	   private final IWAVLNode a;
+	   private final IWAVLNode b;
+
+	   private SetOperationTask(int op, IWAVLNode a, IWAVLNode b) {
+		   this.op = op;
+		   this.a = a;
+		   this.b = b;
+	   }
+
+	   @Override
+	   protected IWAVLNode compute() {
+		   return new WAVLTree().setOperationRoots(op, a, b);
+	   }
+   }
+
+   /*
+    * union and intersect split b by the root of a, difference splits a by the root of b,
+    * then both sides are solved recursively and joined back.
+    * every returned subtree is threaded correctly inside, only the links out of its
+    * smallest and largest nodes may be stale, so the seams are threaded at each join
+    */
+   private IWAVLNode setOperationRoots(int op, IWAVLNode a, IWAVLNode b)
+   {
+	   boolean aEmpty = (null == a || !a.isRealNode());
+	   boolean bEmpty = (null == b || !b.isRealNode());
+	   if (aEmpty) {
+		   return (UNION == op) ? b : virtualLeaf;
+	   }
+	   if (bEmpty) {
+		   return (INTERSECT == op) ? virtualLeaf : a;
+	   }
+
+	   boolean parallel = a.getSubtreeSize() + b.getSubtreeSize() > PARALLEL_THRESHOLD;
+
+	   WAVLNode x = (WAVLNode) ((DIFFERENCE == op) ? b : a);
+	   IWAVLNode xl = detach(x.getLeft());
+	   IWAVLNode xr = detach(x.getRight());
+	   IWAVLNode[] parts = splitRoots((DIFFERENCE == op) ? a : b, x.getKey());
+
+	   IWAVLNode la = (DIFFERENCE == op) ? parts[0] : xl;
+	   IWAVLNode lb = (DIFFERENCE == op) ? xl : parts[0];
+	   IWAVLNode ra = (DIFFERENCE == op) ? parts[2] : xr;
+	   IWAVLNode rb = (DIFFERENCE == op) ? xr : parts[2];
+
+	   IWAVLNode l;
+	   IWAVLNode r;
+	   if (parallel) {
+		   SetOperationTask left = new SetOperationTask(op, la, lb);
+		   left.fork();
+		   r = setOperationRoots(op, ra, rb);
+		   l = left.join();
+	   } else {
+		   l = setOperationRoots(op, la, lb);
+		   r = setOperationRoots(op, ra, rb);
+	   }
+
+	   WAVLNode lastL = l.isRealNode() ? (WAVLNode) maxNode(l) : null;
+	   WAVLNode firstR = r.isRealNode() ? (WAVLNode) minNode(r) : null;
+
+	   if (UNION == op || (INTERSECT == op && null != parts[1])) {
+		   linkBetween(lastL, x, firstR);
+		   return joinRoots(l, x, r);
+	   }
+
+	   if (null != lastL && null != firstR) {
+		   lastL.next = firstR;
+		   firstR.prev = lastL;
+	   }
+	   return joinRoots(l, r);
+   }
+
+   private static WAVLTree ofRoot(IWAVLNode r)
+   {
+	   WAVLTree t = new WAVLTree();
+	   if (null != r && r.isRealNode()) {
+		   t.root = r;
+		   ((WAVLNode) r).setParent(null);
+	   }
+	   t.recalculateMin();
+	   t.recalculateMax();
+	   return t;
+   }
+
+   private void clear()
+   {
+	   root = null;
+	   first = null;
+	   last = null;
+	   finger = null;
+   }
+
+  /**
+   * public int rank(int k)
+   *
+   * Returns the number of keys in the tree smaller than k, in O(log n),
+   * so that select(rank(k)) is the info of k if k is in the tree.
+   */
+   public int rank(int k)
+   {
+	   return countBelow(k, false);
+   }
+
+  /**
+   * public int countInRange(int lo, int hi)
+   *
+   * Returns the number of keys k in the tree with lo <= k <= hi, in O(log n).
+   */
+   public int countInRange(int lo, int hi)
+   {
+	   if (lo > hi) {
+		   return 0;
+	   }
+	   return countBelow(hi, true) - countBelow(lo, false);
+   }
+
+   /*
+    * number of keys smaller than k (or equal to it, if inclusive) through the subtree sizes
+    */
+   private int countBelow(int k, boolean inclusive)
+   {
+	   int count = 0;
+	   IWAVLNode x = root;
+	   while (null != x && x.isRealNode()) {
+		   if (k > x.getKey() || (inclusive && k == x.getKey())) {
+			   count += x.getLeft().getSubtreeSize() + 1;
+			   x = x.getRight();
+		   } else {
+			   x = x.getLeft();
+		   }
+	   }
+	   return count;
+   }
+
+  /**
+   * public IWAVLNode floor(int k)
+   *
+   * Returns the node with the largest key smaller than or equal to k, or null if there is none
+   */
+   public IWAVLNode floor(int k)
+   {
+	   return below(k, true);
+   }
+
+  /**
+   * public IWAVLNode lower(int k)
+   *
+   * Returns the node with the largest key smaller than k, or null if there is none
+   */
+   public IWAVLNode lower(int k)
+   {
+	   return below(k, false);
+   }
+
+  /**
+   * public IWAVLNode ceiling(int k)
+   *
+   * Returns the node with the smallest key greater than or equal to k, or null if there is none
+   */
+   public IWAVLNode ceiling(int k)
+   {
+	   return above(k, true);
+   }
+
+  /**
+   * public IWAVLNode higher(int k)
+   *
+   * Returns the node with the smallest key greater than k, or null if there is none
+   */
+   public IWAVLNode higher(int k)
+   {
+	   return above(k, false);
+   }
+
+   private IWAVLNode below(int k, boolean inclusive)
+   {
+	   IWAVLNode candidate = null;
+	   IWAVLNode x = root;
+	   while (null != x && x.isRealNode()) {
+		   if (k > x.getKey() || (inclusive && k == x.getKey())) {
+			   candidate = x;
+			   x = x.getRight();
+		   } else {
+			   x = x.getLeft();
+		   }
+	   }
+	   return candidate;
+   }
+
+   private IWAVLNode above(int k, boolean inclusive)
+   {
+	   IWAVLNode candidate = null;
+	   IWAVLNode x = root;
+	   while (null != x && x.isRealNode()) {
+		   if (k < x.getKey() || (inclusive && k == x.getKey())) {
+			   candidate = x;
+			   x = x.getLeft();
+		   } else {
+			   x = x.getRight();
+		   }
+	   }
+	   return candidate;
+   }
+
+  /**
+   * public void forEachInRange(int lo, int hi, EntryConsumer consumer)
+   *
+   * Passes every item with lo <= key <= hi to the consumer in increasing key order,
+   * in O(log n + number of items) and without allocating.
+   */
+   public void forEachInRange(int lo, int hi, EntryConsumer consumer)
+   {
+	   if (lo > hi) {
+		   return;
+	   }
+	   WAVLNode x = (WAVLNode) ceiling(lo);
+	   while (null != x && x.getKey() <= hi) {
+		   consumer.accept(x.getKey(), x.getValue());
+		   x = successor(x);
+	   }
+   }
+
+   /**
+    * public interface EntryConsumer
+    *
+    * Receives the items of a range query.
+    */
+   public interface EntryConsumer {
+	   void accept(int key, String info);
+   }
+
+  /**
+   * public Cursor cursor()
+   *
+   * Returns a new cursor over the tree, positioned on no item.
+   * Moving the cursor allocates nothing. Its insert and delete search from its own item,
+   * so a caller can hold one cursor per stream of nearby keys as a finger of its own;
+   * the cursor must not be used once its item is deleted by anything else.
+   */
+   public Cursor cursor()
+   {
+	   return new Cursor();
+   }
+
+  /**
+   * public Spliterator.OfInt keySpliterator()
+   *
+   * Returns a spliterator over the keys in increasing order, which splits by subtree sizes,
+   * so that StreamSupport.intStream(t.keySpliterator(), true) scans the tree in parallel.
+   * The tree must not be modified while it is used.
+   */
+   public Spliterator.OfInt keySpliterator()
+   {
+	   return new KeySpliterator(first, 0, size());
+   }
+
+   /**
+    * public class Cursor
+    *
+    * An in-order position in the tree which moves along parent pointers.
+    * Every move returns true if and only if the cursor is now on an item.
+    */
+   public class Cursor {
+	   private WAVLNode current;
+
+	   private Cursor() {
+		   current = null;
+	   }
+
+	   // moves to the item with the smallest key
+	   public boolean first() {
+		   current = WAVLTree.this.first;
+		   return isValid();
+	   }
+
+	   // moves to the item with the largest key
+	   public boolean last() {
+		   current = WAVLTree.this.last;
+		   return isValid();
+	   }
+
+	   // moves to the item with the next larger key
+	   public boolean next() {
+		   if (null != current) {
+			   current = successor(current);
+		   }
+		   return isValid();
+	   }
+
+	   // moves to the item with the next smaller key
+	   public boolean prev() {
+		   if (null != current) {
+			   current = predecessor(current);
+		   }
+		   return isValid();
+	   }
+
+	   // moves to the item with the smallest key greater than or equal to k,
+	   // searching from the current item, if any, as a finger
+	   public boolean seek(int k) {
+		   if (null != current) {
+			   WAVLNode y = (WAVLNode) fingerPosition(current, k);
+			   current = (y.getKey() >= k) ? y : successor(y);
+			   return isValid();
+		   }
+
+		   WAVLNode candidate = null;
+		   IWAVLNode x = root;
+		   while (null != x && x.isRealNode()) {
+			   if (x.getKey() == k) {
+				   candidate = (WAVLNode) x;
+				   break;
+			   } else if (k < x.getKey()) {
+				   candidate = (WAVLNode) x;
+				   x = x.getLeft();
+			   } else {
+				   x = x.getRight();
+			   }
+		   }
+		   current = candidate;
+		   return isValid();
+	   }
+
+	   // as insert, but searches from the current item, if any, as a finger,
+	   // and moves the cursor to the item with key k.
+	   // the tree's own finger is left alone, so each stream of nearby keys can keep a cursor of its own
+	   public int insert(int k, String i) {
+		   IWAVLNode y = (null == current) ? treePosition(root, k) : fingerPosition(current, k);
+		   if (null == y) {
+			   int res = WAVLTree.this.insert(k, i);
+			   current = (WAVLNode) root;
+			   return res;
+		   }
+		   if (y.getKey() == k) {
+			   current = (WAVLNode) y;
+			   return -1;
+		   }
+		   WAVLNode z = new WAVLNode(k, i);
+		   int res = insertAt(y, z);
+		   current = z;
+		   return res;
+	   }
+
+	   // as delete, but searches from the current item, if any, as a finger.
+	   // the cursor then moves to the item with the next larger key, or the next smaller one if k was the largest.
+	   // a cursor stays valid while other items are inserted or deleted, but not once its own item is deleted elsewhere
+	   public int delete(int k) {
+		   WAVLNode y = (WAVLNode) ((null == current) ? treePosition(root, k) : fingerPosition(current, k));
+		   if (null == y) {
+			   return -1;
+		   }
+		   if (y.getKey() != k) {
+			   current = y;
+			   return -1;
+		   }
+		   current = (null != y.next) ? y.next : y.prev;
+		   return deleteAt(y, k);
+	   }
+
+	   public boolean isValid() {
+		   return (null != current);
+	   }
+
+	   public int getKey() {
+		   if (null == current) {
+			   throw new NoSuchElementException();
+		   }
+		   return current.getKey();
+	   }
+
+	   public String getValue() {
+		   if (null == current) {
+			   throw new NoSuchElementException();
+		   }
+		   return current.getValue();
+	   }
+   }
+
+   /*
+    * covers the keys at positions [index, fence) in order, next is the node at position index.
+    * splitting selects the middle position through the subtree sizes
+    */
+   private class KeySpliterator implements Spliterator.OfInt {
+	   private WAVLNode next;
+	   private int index;
+	   private final int fence;
+
+	   private KeySpliterator(WAVLNode next, int index, int fence) {
+		   this.next = next;
+		   this.index = index;
+		   this.fence = fence;
+	   }
+
+	   @Override
+	   public boolean tryAdvance(IntConsumer action) {
+		   if (index >= fence) {
+			   return false;
+		   }
+		   action.accept(next.getKey());
+		   next = successor(next);
+		   index++;
+		   return true;
+	   }
+
+	   @Override
+	   public Spliterator.OfInt trySplit() {
+		   int mid = (index + fence) >>> 1;
+		   if (mid <= index) {
+			   return null;
+		   }
+
+		   KeySpliterator prefix = new KeySpliterator(next, index, mid);
+		   next = (WAVLNode) selectRec(root, mid);
+		   index = mid;
+		   return prefix;
+	   }
+
+	   @Override
+	   public long estimateSize() {
+		   return fence - index;
+	   }
+
+	   @Override
+	   public int characteristics() {
+		   return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | NONNULL;
+	   }
+
+	   @Override
+	   public Comparator<? super Integer> getComparator() {
+		   return null;
+	   }
+   }
+
    public void printTree() {
 	   if (null == root) {
 		   System.out.println("------------------ size: " + size());
@@ -1250,6 +2304,10 @@ private WAVLNode successor(WAVLNode x) {
 	  	private IWAVLNode left;
 	  	private IWAVLNode parent;
 	  	
+	  	// in-order neighbours, null at the ends of the tree
+	  	private WAVLNode prev;
+	  	private WAVLNode next;
+	  	
 	  	private boolean isReal;
 	  	
 	  	// create actual Node
@@ -1315,11 +2373,13 @@ private WAVLNode successor(WAVLNode x) {
 	  		return parent;
 	  	}
 
+		// a virtual leaf is shared by all the leaves of a tree, and by the
+		// subtrees set operations hand to other threads, so it has no parent
 		public void setParent(IWAVLNode p)
 	  	{
-//			if (isReal) {
+			if (isReal) {
 				parent = p;
-//			}
+			}
 	  	}
 
 	  	public void setRight(IWAVLNode r)
@@ -0,0 +1,291 @@
+package WAVLTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * WriteAheadLog
+ *
+ * An append-only log of WAVLTree inserts and deletes with group commit.
+ * append buffers a record in memory and returns its sequence number;
+ * sync(lsn) returns once that record is on disk. The first thread to sync
+ * becomes the leader and writes and fsyncs everything appended so far in
+ * one go, while the threads that arrive meanwhile wait for the next round,
+ * so one fsync covers many records under concurrent load.
+ *
+ * Record framing (big-endian):
+ *
+ *   byte op, int key, [int length, byte[length] UTF-8 info]   insert only, length -1 for null info
+ *   int CRC32 of the bytes above
+ *
+ * Replay stops at the first torn or corrupt record and cuts the file there.
+ *
+ */
+
+public class WriteAheadLog {
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+
+	private final FileChannel channel;
+
+	// guarded by this
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 12);
+	private DataOutputStream pendingOut = new DataOutputStream(pending);
+	private long appended;  // sequence number of the last appended record
+	private long durable;   // sequence number of the last record on disk
+	private boolean syncing;
+	private IOException failure;
+
+	// the record being appended, guarded by this
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+
+	private WriteAheadLog(FileChannel channel) {
+		this.channel = channel;
+	}
+
+  /**
+   * public static WriteAheadLog open(Path path)
+   *
+   * Opens the log at path for appending, creating it if needed.
+   * Call replay before the first append to recover its records.
+   */
+	public static WriteAheadLog open(Path path) throws IOException {
+		FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ch.position(ch.size());
+		return new WriteAheadLog(ch);
+	}
+
+  /**
+   * public int replay(WAVLTree tree)
+   *
+   * Applies every intact record of the log to tree in order, cuts off a torn
+   * tail left by a crash, and returns the number of records applied.
+   */
+	public synchronized int replay(WAVLTree tree) throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("the log is too large to replay, checkpoint more often");
+		}
+		ByteBuffer buf = ByteBuffer.allocate((int) size);
+		while (buf.hasRemaining() && 0 <= channel.read(buf, buf.position())) {
+			// read the whole log
+		}
+		buf.flip();
+
+		int count = 0;
+		int good = 0; // end of the last intact record
+		while (buf.hasRemaining()) {
+			int start = buf.position();
+			try {
+				byte op = buf.get();
+				int key = buf.getInt();
+				String info = null;
+				if (INSERT == op) {
+					int len = buf.getInt();
+					// a corrupt length must not decide how much to allocate
+					if (len < -1 || len > buf.remaining() - Integer.BYTES) {
+						break;
+					}
+					if (0 <= len) {
+						byte[] bytes = new byte[len];
+						buf.get(bytes);
+						info = new String(bytes, StandardCharsets.UTF_8);
+					}
+				} else if (DELETE != op) {
+					break;
+				}
+				int end = buf.position();
+				int sum = buf.getInt();
+
+				crc.reset();
+				crc.update(buf.array(), start, end - start);
+				if ((int) crc.getValue() != sum) {
+					break;
+				}
+
+				if (INSERT == op) {
+					tree.insert(key, info);
+				} else {
+					tree.delete(key);
+				}
+				count++;
+				good = buf.position();
+			} catch (RuntimeException e) {
+				break; // a truncated record
+			}
+		}
+
+		if (good < size) {
+			channel.truncate(good);
+			channel.force(true);
+		}
+		channel.position(good);
+		return count;
+	}
+
+  /**
+   * public long appendInsert(int k, String i)
+   *
+   * Buffers an insert record and returns its sequence number, for sync.
+   * Throws the error of an earlier failed sync, if there was one.
+   */
+	public synchronized long appendInsert(int k, String i) throws IOException {
+		checkFailure();
+		record.reset();
+		recordOut.writeByte(INSERT);
+		recordOut.writeInt(k);
+		if (null == i) {
+			recordOut.writeInt(-1);
+		} else {
+			byte[] bytes = i.getBytes(StandardCharsets.UTF_8);
+			recordOut.writeInt(bytes.length);
+			recordOut.write(bytes);
+		}
+		return seal();
+	}
+
+  /**
+   * public long appendDelete(int k)
+   *
+   * Buffers a delete record and returns its sequence number, for sync.
+   * Throws the error of an earlier failed sync, if there was one.
+   */
+	public synchronized long appendDelete(int k) throws IOException {
+		checkFailure();
+		record.reset();
+		recordOut.writeByte(DELETE);
+		recordOut.writeInt(k);
+		return seal();
+	}
+
+	/*
+	 * throws the error of a failed sync, after which the log takes no more records
+	 * because the buffered ones may be lost
+	 */
+	synchronized void checkFailure() throws IOException {
+		if (null != failure) {
+			throw failure;
+		}
+	}
+
+	// guarded by this
+	private long seal() throws IOException {
+		byte[] r = record.toByteArray();
+		crc.reset();
+		crc.update(r);
+		pendingOut.write(r);
+		pendingOut.writeInt((int) crc.getValue());
+		return ++appended;
+	}
+
+  /**
+   * public void sync(long lsn)
+   *
+   * Returns once the record with sequence number lsn and all records before it are on disk.
+   */
+	public void sync(long lsn) throws IOException {
+		ByteArrayOutputStream batch;
+		long target;
+
+		synchronized (this) {
+			while (true) {
+				if (null != failure) {
+					throw failure;
+				}
+				if (durable >= lsn) {
+					return;
+				}
+				if (!syncing) {
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while waiting for the log", e);
+				}
+			}
+
+			// become the leader of this round, appends go on into a fresh buffer
+			syncing = true;
+			batch = pending;
+			target = appended;
+			pending = new ByteArrayOutputStream(Math.max(1 << 12, batch.size()));
+			pendingOut = new DataOutputStream(pending);
+		}
+
+		IOException error = null;
+		try {
+			ByteBuffer buf = ByteBuffer.wrap(batch.toByteArray());
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			error = e;
+		}
+
+		synchronized (this) {
+			syncing = false;
+			if (null == error) {
+				durable = Math.max(durable, target);
+			} else {
+				failure = error;
+			}
+			notifyAll();
+		}
+		if (null != error) {
+			throw error;
+		}
+	}
+
+	/*
+	 * empties the log once its records are covered by a snapshot,
+	 * records still buffered count as durable
+	 */
+	synchronized void reset() throws IOException {
+		while (syncing) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while waiting for the log", e);
+			}
+		}
+		pending.reset();
+		channel.truncate(0);
+		channel.position(0);
+		channel.force(true);
+		durable = appended;
+		notifyAll();
+	}
+
+  /**
+   * public void close()
+   *
+   * Writes and syncs the buffered records and closes the log.
+   */
+	public void close() throws IOException {
+		long lsn;
+		synchronized (this) {
+			lsn = appended;
+		}
+		try {
+			sync(lsn);
+		} finally {
+			channel.close();
+		}
+	}
+
+}